@@ -0,0 +1,193 @@
+package ai;
+
+import data.BoardGeometry;
+import data.LongBoard;
+import data.Player;
+
+/**
+ * The rules on bitboards of one long, as used by the computer player. A position is two longs: the stones of the
+ * player to move ("current") and all stones ("mask"), laid out like in {@link BoardGeometry#bit(int, int)}. A move is
+ * an addition, finding lines a few shifts, so searching never allocates.
+ */
+public final class Bitboards {
+	/** The size of the board and the winning rule. */
+	private final BoardGeometry geometry;
+	/** Bits per column including the sentinel. */
+	private final int height;
+	/** Bit shifts to the next stone of every direction a line fits in. */
+	private final int[] directions;
+	/** The bottom cell of every column. */
+	private final long bottom;
+	/** Every cell of the board, without the sentinels. */
+	private final long full;
+	/** The cells of every column. */
+	private final long[] columnMasks;
+	/** Cells of the odd rows counted from 1 at the bottom, the rows the first player can claim by zugzwang. */
+	private final long oddRows;
+	/** Mixed into the canonical keys, so keys of different geometries differ. */
+	private final long keySalt;
+
+	/**Creates the rules for a geometry.
+	 * @param geometry the size of the board.
+	 * @throws IllegalArgumentException if the bitboards don't fit into a long. */
+	public Bitboards(BoardGeometry geometry) {
+		if (!geometry.fitsInLong()) {
+			throw new IllegalArgumentException("The computer player needs a board fitting into a long, not " + geometry);
+		}
+		this.geometry = geometry;
+		height = geometry.getRows() + 1;
+		directions = geometry.getDirections();
+		columnMasks = new long[geometry.getColumns()];
+		long bottomCells = 0;
+		long cells = 0;
+		long odd = 0;
+		for (int column = 0; column < geometry.getColumns(); column++) {
+			bottomCells |= 1L << geometry.bit(column, 0);
+			for (int row = 0; row < geometry.getRows(); row++) {
+				columnMasks[column] |= 1L << geometry.bit(column, row);
+				if (row % 2 == 0) {
+					odd |= 1L << geometry.bit(column, row);
+				}
+			}
+			cells |= columnMasks[column];
+		}
+		bottom = bottomCells;
+		full = cells;
+		oddRows = odd;
+		keySalt = geometry.hashCode() * 0xC2B2AE3D27D4EB4FL;
+	}
+
+	/** @return the size of the board and the winning rule. */
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+
+	/** @return every cell of the board. */
+	public long getFull() {
+		return full;
+	}
+
+	/** @return the cells of the odd rows counted from 1 at the bottom. */
+	public long getOddRows() {
+		return oddRows;
+	}
+
+	/** @return the cells of the even rows counted from 1 at the bottom. */
+	public long getEvenRows() {
+		return full & ~oddRows;
+	}
+
+	/** @param column a column.
+	 * @return the cells of the column. */
+	public long getColumnMask(int column) {
+		return columnMasks[column];
+	}
+
+	/** @param mask all stones.
+	 * @return the cell a stone would land in for every column which is not full. */
+	public long playable(long mask) {
+		return (mask + bottom) & full;
+	}
+
+	/** @param mask   all stones.
+	 * @param column a column.
+	 * @return the cell a stone would land in, 0 if the column is full. */
+	public long moveBit(long mask, int column) {
+		return (mask + (bottom & columnMasks[column])) & columnMasks[column];
+	}
+
+	/** @param move a single cell.
+	 * @return the column of the cell. */
+	public int column(long move) {
+		return Long.numberOfTrailingZeros(move) / height;
+	}
+
+	/** @param stones the stones of one player.
+	 * @return true if they contain a line. */
+	public boolean isLine(long stones) {
+		for (int shift : directions) {
+			if (LongBoard.lineStarts(stones, shift, geometry.getConnect()) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**Finds the empty cells which would complete a line, whether they can be played yet or not.
+	 * @param stones the stones of one player.
+	 * @param mask   all stones.
+	 * @return the cells. */
+	public long winningCells(long stones, long mask) {
+		return lineCells(stones) & ~mask;
+	}
+
+	/**Finds the cells which complete a line of the stones, taken or not. For every direction the runs of stones
+	 * ending right before and starting right after every cell are built up one shift at a time, a cell completes a line
+	 * if a run before and a run after add up to connect - 1 stones.
+	 * @param stones the stones of one player.
+	 * @return the cells. */
+	public long lineCells(long stones) {
+		int connect = geometry.getConnect();
+		long cells = 0;
+		for (int shift : directions) {
+			// before[k] and after[k] of the text: cells with k stones right before / after them
+			long before = full;
+			for (int k = 0; k < connect; k++) {
+				long after = full;
+				for (int i = 1; i < connect - k && after != 0; i++) {
+					after &= stones >>> (i * shift);
+				}
+				cells |= before & after;
+				before &= stones << ((k + 1) * shift);
+				if (before == 0) {
+					break;
+				}
+			}
+		}
+		return cells & full;
+	}
+
+	/** Returns a key identifying a position. The sum sets the lowest empty cell of every column, so the sentinel
+	 * bits keep it unique.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @return the key. */
+	public long key(long current, long mask) {
+		return current + mask + bottom;
+	}
+
+	/**Returns a key identifying a position together with its mirror image and the geometry, for sharing results
+	 * between geometries and between positions which are mirror images of each other.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @return the key. */
+	public long canonicalKey(long current, long mask) {
+		long key = key(current, mask);
+		return Math.min(key, mirror(key)) ^ keySalt;
+	}
+
+	/**Mirrors stones at the middle column. The sentinel bits are mirrored too, so this works for keys as well.
+	 * @param stones the stones or a key.
+	 * @return the mirror image. */
+	public long mirror(long stones) {
+		int columns = columnMasks.length;
+		long column = -1L >>> (64 - height);
+		long mirrored = 0;
+		for (int left = 0, right = columns - 1; left < right; left++, right--) {
+			int distance = (right - left) * height;
+			mirrored |= (stones & column << (left * height)) << distance;
+			mirrored |= (stones >>> distance) & column << (left * height);
+		}
+		if (columns % 2 == 1) {
+			mirrored |= stones & column << (columns / 2 * height);
+		}
+		return mirrored;
+	}
+
+	/** @param board a board, the stones of the player to move are {@link LongBoard#getStones(Player)}.
+	 * @return all stones. */
+	public static long mask(LongBoard board) {
+		return board.getStones(Player.YELLOW) | board.getStones(Player.RED);
+	}
+
+}
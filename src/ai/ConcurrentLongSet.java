@@ -0,0 +1,135 @@
+package ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A set of longs for many threads, without locks and without boxing: open addressing with linear probing in one long
+ * array, a key is claimed by a compare-and-set on an empty slot. Keys can't be removed and the set does not grow, so
+ * it has to be created large enough. 0 can't be stored.
+ */
+final class ConcurrentLongSet {
+	/** Reads and compares-and-sets the longs of the array. */
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/** The keys, 0 for empty slots. */
+	private final long[] slots;
+	/** Shift turning a hash into a slot index. */
+	private final int shift;
+
+	/**Creates an empty set.
+	 * @param bits the set holds 2^bits keys at most, it gets slow long before. */
+	ConcurrentLongSet(int bits) {
+		slots = new long[1 << bits];
+		shift = 64 - bits;
+	}
+
+	/**Adds a key.
+	 * @param key the key, not 0.
+	 * @return true if the key was added, false if it was in the set before.
+	 * @throws IllegalStateException if the set is full. */
+	boolean add(long key) {
+		int mask = slots.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		for (int probes = 0; probes < slots.length; probes++) {
+			long found = (long) SLOTS.getVolatile(slots, slot);
+			if (found == key) {
+				return false;
+			}
+			if (found == 0) {
+				found = (long) SLOTS.compareAndExchange(slots, slot, 0L, key);
+				if (found == 0) {
+					return true;
+				}
+				if (found == key) {
+					return false;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+		throw new IllegalStateException("The set of " + slots.length + " keys is full.");
+	}
+
+	/** @return number of keys the set holds at most. */
+	int getCapacity() {
+		return slots.length;
+	}
+
+	/**Checks the set from the command line and exits with 1 if a check fails: random keys with repeats are added
+	 * and compared with a HashSet, several threads add overlapping keys and every key has to be added by exactly one
+	 * of them, and a full set has to refuse another key.
+	 * @param args optionally the number of threads, 4 if not given.
+	 * @throws InterruptedException if interrupted while waiting for the threads. */
+	public static void main(String[] args) throws InterruptedException {
+		int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		boolean correct = true;
+
+		ConcurrentLongSet set = new ConcurrentLongSet(16);
+		Set<Long> expected = new HashSet<>();
+		Random random = new Random(1);
+		boolean same = true;
+		// 90 % full, so long runs of probes are walked
+		while (expected.size() < set.getCapacity() * 9 / 10) {
+			long key = 1 + random.nextInt(100_000);
+			same &= set.add(key) == expected.add(key);
+		}
+		System.out.printf("single thread: %d keys like a HashSet  %s%n", expected.size(), same ? "ok" : "WRONG");
+		correct &= same;
+
+		ConcurrentLongSet shared = new ConcurrentLongSet(20);
+		int keys = shared.getCapacity() / 2;
+		AtomicIntegerArray added = new AtomicIntegerArray(keys + 1);
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threads.length; t++) {
+			int offset = t * keys / threads.length;
+			threads[t] = new Thread(() -> {
+				// every thread adds every key, starting at a different one
+				for (int i = 0; i < keys; i++) {
+					int key = 1 + (offset + i) % keys;
+					if (shared.add(key)) {
+						added.incrementAndGet(key);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		int wrong = 0;
+		for (int key = 1; key <= keys; key++) {
+			if (added.get(key) != 1) {
+				wrong++;
+			}
+		}
+		System.out.printf("%d threads: %d keys, %d not added exactly once  %s%n", threads.length, keys, wrong,
+				wrong == 0 ? "ok" : "WRONG");
+		correct &= wrong == 0;
+
+		ConcurrentLongSet full = new ConcurrentLongSet(4);
+		for (long key = 1; key <= full.getCapacity(); key++) {
+			full.add(key);
+		}
+		boolean refused;
+		try {
+			full.add(full.getCapacity() + 1);
+			refused = false;
+		} catch (IllegalStateException e) {
+			refused = true;
+		}
+		boolean repeat = !full.add(1);
+		System.out.printf("full set: another key refused, a repeated one found  %s%n",
+				refused && repeat ? "ok" : "WRONG");
+		correct &= refused && repeat;
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+}
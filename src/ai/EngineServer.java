@@ -0,0 +1,523 @@
+package ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import data.Board;
+import data.BoardGeometry;
+import data.DataModell;
+import data.LongBoard;
+import data.Player;
+import metrics.LatencyHistogram;
+
+/**
+ * The computer player as a local service for other programs. Clients connect by TCP on the loopback interface and
+ * talk in lines of text, like UCI for chess engines:
+ * <ul>
+ * <li>{@code position [columns rows connect] [moves c1 c2 ...]} sets up a game, columns counted from 0, classic
+ * board if no size is given,</li>
+ * <li>{@code go [depth d] [movetime ms]} searches the position and answers {@code info depth d score s nodes n nps n
+ * time ms} and {@code bestmove c}, or {@code bestmove none} if the game is over,</li>
+ * <li>{@code stop} ends the running search early, it still answers with the best move found so far,</li>
+ * <li>{@code eval} answers {@code eval s}, the score of the position without searching,</li>
+ * <li>{@code isready} answers {@code readyok}, {@code quit} closes the connection.</li>
+ * </ul>
+ * Scores are from the view of the player to move, decided games are given as {@code win n} or {@code loss n} with the
+ * number of stones until the winning stone.
+ * Every connection has one thread with a small stack, reading commands and holding a {@link DataModell}. Java 11 has
+ * no virtual threads, so these are platform threads and their number is capped: a connection beyond the cap is
+ * answered {@code busy} and closed. The searches run on a fixed number of workers behind a bounded queue; a search
+ * which does not fit in the queue is refused with {@code busy} at once, so the latency of the accepted ones stays
+ * predictable. The time spent in the queue counts towards the movetime.
+ */
+public final class EngineServer {
+	/** The port of {@link #main(String[])} if none is given. */
+	public static final int DEFAULT_PORT = 4567;
+	/** Searches waiting for a worker at most, if none is given. */
+	public static final int DEFAULT_QUEUE = 64;
+	/** Connections open at the same time at most, if none is given. */
+	public static final int DEFAULT_SESSIONS = 256;
+	/** Movetime of a go without one. */
+	private static final long DEFAULT_MOVETIME = 1000;
+	/** The longest movetime accepted. */
+	private static final long MAX_MOVETIME = 60_000;
+	/** Depth of a go without one, deep enough for the time to end the search first. */
+	private static final int MAX_DEPTH = 64;
+	/** Longer commands close the connection. */
+	private static final int MAX_LINE = 4096;
+	/** Stack size of a connection thread. */
+	private static final long CONNECTION_STACK = 256 * 1024;
+
+	/** Accepts the connections. */
+	private final ServerSocket serverSocket;
+	/** Reads the commands of every connection, one thread each up to the cap. */
+	private final ThreadPoolExecutor connections;
+	/** Runs the searches. */
+	private final ThreadPoolExecutor workers;
+	/** The searches of a worker, one per geometry, so their transposition tables live as long as the worker. */
+	private final ThreadLocal<Map<BoardGeometry, Search>> searches = ThreadLocal.withInitial(HashMap::new);
+	/** The open sessions. */
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	/** Time the searches waited for a worker. */
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	/** Number of searches done. */
+	private final LongAdder searchesDone = new LongAdder();
+	/** Number of searches refused with busy. */
+	private final LongAdder searchesRejected = new LongAdder();
+	/** Number of connections accepted so far. */
+	private final LongAdder connectionsAccepted = new LongAdder();
+	/** Number of connections refused because the cap was reached. */
+	private final LongAdder connectionsRejected = new LongAdder();
+	/** Accepts the connections. */
+	private final Thread acceptor;
+	/** Set by {@link #close()}. */
+	private volatile boolean closed;
+
+	/**Starts a server on the loopback interface, with up to {@link #DEFAULT_SESSIONS} connections.
+	 * @param port    the port to listen on, 0 to pick a free one.
+	 * @param workers number of searches running at the same time.
+	 * @param queue   number of searches waiting for a worker at most.
+	 * @throws IOException if the port can't be opened. */
+	public EngineServer(int port, int workers, int queue) throws IOException {
+		this(port, workers, queue, DEFAULT_SESSIONS);
+	}
+
+	/**Starts a server on the loopback interface.
+	 * @param port        the port to listen on, 0 to pick a free one.
+	 * @param workers     number of searches running at the same time.
+	 * @param queue       number of searches waiting for a worker at most.
+	 * @param maxSessions number of connections open at the same time at most.
+	 * @throws IOException if the port can't be opened. */
+	public EngineServer(int port, int workers, int queue, int maxSessions) throws IOException {
+		serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		connections = newConnectionExecutor(maxSessions);
+		AtomicInteger workerNumber = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queue), runnable -> {
+					Thread thread = new Thread(runnable, "EngineServer-worker-" + workerNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		acceptor = new Thread(this::accept, "EngineServer-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/** @return the port the server listens on. */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** @return the time the searches waited for a worker. */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/** @return number of searches done. */
+	public long getSearchesDone() {
+		return searchesDone.sum();
+	}
+
+	/** @return number of searches refused because the queue was full. */
+	public long getSearchesRejected() {
+		return searchesRejected.sum();
+	}
+
+	/** @return number of connections accepted so far. */
+	public long getConnectionsAccepted() {
+		return connectionsAccepted.sum();
+	}
+
+	/** @return number of connections refused because the cap was reached. */
+	public long getConnectionsRejected() {
+		return connectionsRejected.sum();
+	}
+
+	/** @return number of connections currently open. */
+	public int getOpenConnections() {
+		return sessions.size();
+	}
+
+	/** Stops the server, drops all connections and stops the running searches. */
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Session session : sessions) {
+			session.close();
+		}
+		workers.shutdownNow();
+		connections.shutdownNow();
+	}
+
+	/**Runs a server until the process is killed.
+	 * @param args optional: the port, number of workers (default: one per processor), the queue size and the number
+	 *             of connections at most.
+	 * @throws IOException if the port can't be opened.
+	 * @throws InterruptedException if interrupted while serving. */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queue = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_QUEUE;
+		int maxSessions = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SESSIONS;
+		EngineServer server = new EngineServer(port, workers, queue, maxSessions);
+		System.out.println("EngineServer on port " + server.getPort() + " with " + workers + " workers");
+		server.acceptor.join();
+	}
+
+	/**Creates the executor running one thread per connection: daemon threads with a small stack, kept for a while
+	 * after their connection closed. It refuses a connection when all threads are taken.
+	 * @param maxSessions number of threads at most.
+	 * @return the executor. */
+	private static ThreadPoolExecutor newConnectionExecutor(int maxSessions) {
+		AtomicInteger number = new AtomicInteger();
+		return new ThreadPoolExecutor(0, maxSessions, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+			Thread thread = new Thread(null, runnable, "EngineServer-connection-" + number.incrementAndGet(),
+					CONNECTION_STACK);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/** Accepts connections until the server is closed. */
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Session session = new Session(socket);
+				sessions.add(session);
+				try {
+					connections.execute(session);
+					connectionsAccepted.increment();
+				} catch (RejectedExecutionException e) {
+					// all connection threads are taken, or the server was closed meanwhile
+					sessions.remove(session);
+					if (!closed) {
+						connectionsRejected.increment();
+						refuse(socket);
+					}
+					socket.close();
+				}
+			} catch (IOException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**Answers a connection which gets no thread with busy.
+	 * @param socket the connection. */
+	private static void refuse(Socket socket) {
+		try {
+			socket.getOutputStream().write("busy\n".getBytes(StandardCharsets.US_ASCII));
+		} catch (IOException e) {
+			// the client is gone already
+		}
+	}
+
+	/**Returns the search of the calling worker for a geometry.
+	 * @param geometry the size of the board.
+	 * @return the search. */
+	private Search search(BoardGeometry geometry) {
+		return searches.get().computeIfAbsent(geometry, g -> new Search(new Bitboards(g)));
+	}
+
+	/**Writes a score for the protocol.
+	 * @param score a score of a {@link Search}.
+	 * @return the text. */
+	private static String score(int score) {
+		if (score > Search.WIN_BOUND) {
+			return "win " + (Search.WIN - score + 1);
+		}
+		if (score < -Search.WIN_BOUND) {
+			return "loss " + (Search.WIN + score + 1);
+		}
+		return Integer.toString(score);
+	}
+
+	/**
+	 * One connection with its game, read by its own thread.
+	 */
+	private final class Session implements Runnable {
+		/** The connection. */
+		private final Socket socket;
+		/** The answers, written by the reading thread and the workers. */
+		private Writer out;
+		/** The game, replaced by every position command and never changed afterwards. */
+		private volatile DataModell game = new DataModell();
+		/** Scores positions for eval, created on the first use. */
+		private Evaluator evaluator;
+		/** Set while a search of this session is queued or running. */
+		private volatile boolean searching;
+		/** Set by stop, read by the running search. */
+		private volatile boolean stopRequested;
+
+		/** @param socket the accepted connection. */
+		private Session(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+				String line;
+				while (!closed && (line = readLine(in)) != null) {
+					if (!command(line.trim().split("\\s+"))) {
+						break;
+					}
+				}
+			} catch (SocketException e) {
+				// connection dropped by the client or by close()
+			} catch (IOException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+			} finally {
+				close();
+			}
+		}
+
+		/**Executes one command.
+		 * @param words the words of the command line.
+		 * @return false to close the connection.
+		 * @throws IOException if answering fails. */
+		private boolean command(String[] words) throws IOException {
+			switch (words[0]) {
+			case "":
+				break;
+			case "position":
+				if (searching) {
+					send("error search running");
+				} else {
+					position(words);
+				}
+				break;
+			case "go":
+				go(words);
+				break;
+			case "stop":
+				stopRequested = true;
+				break;
+			case "eval":
+				DataModell current = game;
+				if (evaluator == null || !evaluator.getRules().getGeometry().equals(current.getGeometry())) {
+					evaluator = new Evaluator(new Bitboards(current.getGeometry()));
+				}
+				LongBoard board = copyBoard(current);
+				int score;
+				if (current.getWinner() != Player.NOONE) {
+					// the player to move has lost
+					score = -Search.WIN;
+				} else if (current.isFinished()) {
+					score = 0;
+				} else {
+					score = evaluator.evaluate(board.getStones(current.getCurrentPlayer()), Bitboards.mask(board));
+				}
+				send("eval " + score(score));
+				break;
+			case "isready":
+				send("readyok");
+				break;
+			case "quit":
+				return false;
+			default:
+				send("error unknown command " + words[0]);
+				break;
+			}
+			return true;
+		}
+
+		/**Sets up a new game and replays its moves.
+		 * @param words the words of the command line.
+		 * @throws IOException if answering fails. */
+		private void position(String[] words) throws IOException {
+			int index = 1;
+			BoardGeometry geometry = BoardGeometry.STANDARD;
+			try {
+				if (words.length >= 4 && !words[1].equals("moves")) {
+					geometry = new BoardGeometry(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+							Integer.parseInt(words[3]));
+					index = 4;
+				}
+			} catch (IllegalArgumentException e) {
+				send("error illegal board " + e.getMessage());
+				return;
+			}
+			if (!geometry.fitsInLong()) {
+				send("error board too large " + geometry);
+				return;
+			}
+			DataModell position = new DataModell(geometry);
+			if (index < words.length) {
+				if (!words[index].equals("moves")) {
+					send("error expected moves");
+					return;
+				}
+				for (index++; index < words.length; index++) {
+					int column;
+					try {
+						column = Integer.parseInt(words[index]);
+					} catch (NumberFormatException e) {
+						column = -1;
+					}
+					if (!position.makeTurn(column)) {
+						send("error illegal move " + words[index]);
+						return;
+					}
+				}
+			}
+			game = position;
+		}
+
+		/**Queues a search of the game.
+		 * @param words the words of the command line.
+		 * @throws IOException if answering fails. */
+		private void go(String[] words) throws IOException {
+			int depth = MAX_DEPTH;
+			long movetime = DEFAULT_MOVETIME;
+			try {
+				for (int i = 1; i + 1 < words.length; i += 2) {
+					if (words[i].equals("depth")) {
+						depth = Math.max(1, Math.min(MAX_DEPTH, Integer.parseInt(words[i + 1])));
+					} else if (words[i].equals("movetime")) {
+						movetime = Math.max(1, Math.min(MAX_MOVETIME, Long.parseLong(words[i + 1])));
+					}
+				}
+			} catch (NumberFormatException e) {
+				send("error illegal number");
+				return;
+			}
+			if (searching) {
+				send("error search running");
+				return;
+			}
+			DataModell position = game;
+			if (position.isFinished()) {
+				send("bestmove none");
+				return;
+			}
+			searching = true;
+			stopRequested = false;
+			long queued = System.nanoTime();
+			int maxDepth = depth;
+			long maxMillis = movetime;
+			try {
+				workers.execute(() -> search(position, maxDepth, maxMillis, queued));
+			} catch (RejectedExecutionException e) {
+				searching = false;
+				searchesRejected.increment();
+				send("busy");
+			}
+		}
+
+		/**Runs on a worker: searches and answers.
+		 * @param position  the game.
+		 * @param maxDepth  the depth of the last iteration.
+		 * @param maxMillis the movetime including the time in the queue.
+		 * @param queued    when the search was queued, in System.nanoTime(). */
+		private void search(DataModell position, int maxDepth, long maxMillis, long queued) {
+			try {
+				long waited = System.nanoTime() - queued;
+				queueWait.record(waited);
+				long millis = Math.max(1, maxMillis - waited / 1_000_000);
+				SearchResult result = EngineServer.this.search(position.getGeometry()).search(position, maxDepth,
+						millis, () -> stopRequested || closed);
+				searchesDone.increment();
+				String answer = "info depth " + result.getDepth() + " score " + score(result.getScore()) + " nodes "
+						+ result.getNodes() + " nps " + result.getNodesPerSecond() + " time "
+						+ result.getNanos() / 1_000_000 + "\n"
+						+ (result.getColumn() < 0 ? "bestmove none" : "bestmove " + result.getColumn());
+				// cleared once and before the answer, the client may send its next go as soon as it reads it
+				searching = false;
+				send(answer);
+			} catch (IOException e) {
+				searching = false;
+				close();
+			} catch (RuntimeException e) {
+				searching = false;
+				throw e;
+			}
+		}
+
+		/**Copies the board of a game.
+		 * @param position the game.
+		 * @return the copy. */
+		private LongBoard copyBoard(DataModell position) {
+			LongBoard board = (LongBoard) Board.create(position.getGeometry());
+			position.copyBoard(board);
+			return board;
+		}
+
+		/**Sends one or more lines.
+		 * @param lines the lines.
+		 * @throws IOException if the connection is closed. */
+		private void send(String lines) throws IOException {
+			synchronized (this) {
+				out.write(lines);
+				out.write('\n');
+				out.flush();
+			}
+		}
+
+		/**Reads a line, \n or \r\n terminated.
+		 * @param in the input.
+		 * @return the line or null at the end of the input or if the line is longer than {@link #MAX_LINE}.
+		 * @throws IOException if reading fails. */
+		private String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int b;
+			while ((b = in.read()) != '\n') {
+				if (b < 0) {
+					return line.length() == 0 ? null : line.toString();
+				}
+				if (b != '\r') {
+					line.append((char) b);
+				}
+				if (line.length() > MAX_LINE) {
+					send("error command too long");
+					return null;
+				}
+			}
+			return line.toString();
+		}
+
+		/** Closes the connection and stops its search. */
+		private void close() {
+			stopRequested = true;
+			sessions.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
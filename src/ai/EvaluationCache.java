@@ -0,0 +1,307 @@
+package ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Remembers the scores of positions right before the horizon of a {@link Search} for all searches of the process, so
+ * games running side by side, and games reaching the same positions one after another, score each position once.
+ * Such a score is the best of the {@link Evaluator} scores of the children, or a lower bound of it if the search
+ * stopped at a cutoff. Positions and their mirror images share one entry, their scores are equal.
+ * The entries are kept in one long array without locks: every entry is two longs, the key xor the data and the data.
+ * An entry torn by two threads writing at once does not match its key any more and is a miss, so no entry ever
+ * returns a wrong score. Four entries form a set in 64 bytes; a new entry replaces the first one not used since the
+ * last pass, like a clock, or an empty one. The shared cache is registered in the platform MBean server as
+ * "fourthewin:type=EvaluationCache".
+ */
+public final class EvaluationCache implements EvaluationCacheMXBean {
+	/** Entries of the shared cache as a power of two, 16 MiB. */
+	private static final int SHARED_BITS = 20;
+	/** Entries per set as a power of two. */
+	private static final int WAY_BITS = 2;
+	/** Entries per set. */
+	private static final int WAYS = 1 << WAY_BITS;
+	/** Set in an entry holding a lower bound of the score. */
+	private static final long LOWER_BOUND = 1L << 34;
+	/** Set in every stored entry, so an entry is never 0. */
+	private static final long VALID = 1L << 33;
+	/** Set in an entry found since the clock last passed it. */
+	private static final long REFERENCED = 1L << 32;
+	/** Reads and writes the longs of the array atomically, without ordering them. */
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/** The entries: key xor data, data, for every entry. */
+	private final long[] slots;
+	/** Shift turning a hash into a set index. */
+	private final int shift;
+	/** Number of lookups. */
+	private final LongAdder probes = new LongAdder();
+	/** Number of lookups which found the position. */
+	private final LongAdder hits = new LongAdder();
+	/** Number of entries which replaced another one. */
+	private final LongAdder evictions = new LongAdder();
+
+	/**Creates an empty cache.
+	 * @param bits the cache holds 2^bits entries.
+	 * @throws IllegalArgumentException if bits is not between 3 and 28. */
+	public EvaluationCache(int bits) {
+		if (bits <= WAY_BITS || bits > 28) {
+			throw new IllegalArgumentException("The cache needs between 2^3 and 2^28 entries, not 2^" + bits);
+		}
+		slots = new long[2 << bits];
+		shift = 64 - (bits - WAY_BITS);
+	}
+
+	/** @return the cache of the process, used by every {@link Search} unless it is given another one. */
+	public static EvaluationCache getShared() {
+		return Shared.CACHE;
+	}
+
+	/**Looks up a position. Lookups are not counted here, every user counts its own and adds them with
+	 * {@link #addCounts(long, long)}, which keeps the threads from writing to the same counter all the time.
+	 * @param key the key of the position, see {@link Bitboards#canonicalKey(long, long)}.
+	 * @return the entry, 0 if the position is not stored. */
+	public long probe(long key) {
+		int first = set(key);
+		for (int way = 0; way < WAYS; way++) {
+			int slot = first + 2 * way;
+			long data = (long) SLOTS.getOpaque(slots, slot + 1);
+			if (data != 0 && ((long) SLOTS.getOpaque(slots, slot) ^ data) == key) {
+				if ((data & REFERENCED) == 0) {
+					write(slot, key, data | REFERENCED);
+				}
+				return data;
+			}
+		}
+		return 0;
+	}
+
+	/** @param entry an entry.
+	 * @return the score. */
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	/** @param entry an entry.
+	 * @return true if the score is a lower bound, false if it is exact. */
+	public static boolean isLowerBound(long entry) {
+		return (entry & LOWER_BOUND) != 0;
+	}
+
+	/**Stores the score of a position. Replaces the entry of the position if another search stored it meanwhile, an
+	 * empty entry of its set, or the first entry not found since the clock last passed it; the entries passed are
+	 * marked as not found.
+	 * @param key        the key of the position.
+	 * @param score      the score.
+	 * @param lowerBound true if the score is a lower bound, false if it is exact. */
+	public void store(long key, int score, boolean lowerBound) {
+		long entry = VALID | (lowerBound ? LOWER_BOUND : 0) | (score & 0xFFFFFFFFL);
+		int first = set(key);
+		// the clock hand of a set is not stored, it starts at a way given by the key
+		int hand = (int) key & (WAYS - 1);
+		int victim = -1;
+		for (int i = 0; i < WAYS; i++) {
+			int slot = first + 2 * ((hand + i) & (WAYS - 1));
+			long data = (long) SLOTS.getOpaque(slots, slot + 1);
+			if (data == 0 || ((long) SLOTS.getOpaque(slots, slot) ^ data) == key) {
+				write(slot, key, entry);
+				return;
+			}
+			if ((data & REFERENCED) == 0) {
+				if (victim < 0) {
+					victim = slot;
+				}
+			} else if (victim < 0) {
+				write(slot, (long) SLOTS.getOpaque(slots, slot) ^ data, data & ~REFERENCED);
+			}
+		}
+		if (victim < 0) {
+			victim = first + 2 * hand;
+		}
+		evictions.increment();
+		write(victim, key, entry);
+	}
+
+	/**Adds lookups to the counters.
+	 * @param probeCount number of lookups.
+	 * @param hitCount   number of lookups which found the position. */
+	public void addCounts(long probeCount, long hitCount) {
+		probes.add(probeCount);
+		hits.add(hitCount);
+	}
+
+	/** Forgets all entries and sets the counters to 0. Entries stored at the same time may stay. */
+	public void clear() {
+		for (int slot = 0; slot < slots.length; slot++) {
+			SLOTS.setOpaque(slots, slot, 0L);
+		}
+		probes.reset();
+		hits.reset();
+		evictions.reset();
+	}
+
+	@Override
+	public int getCapacity() {
+		return slots.length / 2;
+	}
+
+	@Override
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		long probeCount = probes.sum();
+		return probeCount == 0 ? 0 : (double) hits.sum() / probeCount;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**Checks the cache from the command line and exits with 1 if a check fails:
+	 * <ul>
+	 * <li>scores and bounds come back as they were stored, positions not stored are not found,</li>
+	 * <li>a position found since the clock last passed stays when a new one replaces an entry of its full set,</li>
+	 * <li>a cache far too small for its positions never returns the score of another position,</li>
+	 * <li>neither do threads storing and looking up the same positions at once.</li>
+	 * </ul>
+	 * @param args optionally the number of threads, 4 if not given.
+	 * @throws InterruptedException if interrupted while waiting for the threads. */
+	public static void main(String[] args) throws InterruptedException {
+		int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		boolean correct = true;
+
+		EvaluationCache cache = new EvaluationCache(12);
+		int[] scores = { 0, 1, -1, Evaluator.MAX_SCORE, -Evaluator.MAX_SCORE, Search.WIN, Integer.MIN_VALUE,
+				Integer.MAX_VALUE };
+		boolean same = true;
+		for (int i = 0; i < scores.length; i++) {
+			for (boolean lowerBound : new boolean[] { false, true }) {
+				long key = 1000 + 2 * i + (lowerBound ? 1 : 0);
+				cache.store(key, scores[i], lowerBound);
+				long entry = cache.probe(key);
+				same &= entry != 0 && score(entry) == scores[i] && isLowerBound(entry) == lowerBound;
+			}
+		}
+		same &= cache.probe(999) == 0 && cache.probe(0) == 0;
+		System.out.printf("scores and bounds stored and found  %s%n", same ? "ok" : "WRONG");
+		correct &= same;
+
+		// a cache of two sets: find five positions of one set, look up the second one, then store the fifth
+		EvaluationCache small = new EvaluationCache(3);
+		long[] keys = new long[WAYS + 1];
+		int found = 0;
+		for (long key = 1; found < keys.length; key++) {
+			if (small.set(key) == 0) {
+				keys[found++] = key;
+			}
+		}
+		for (int i = 0; i < WAYS; i++) {
+			small.store(keys[i], i, false);
+		}
+		small.probe(keys[1]);
+		small.store(keys[WAYS], WAYS, false);
+		boolean kept = small.probe(keys[1]) != 0 && small.probe(keys[WAYS]) != 0 && small.getEvictions() == 1;
+		System.out.printf("clock: the position looked up stays, the new one is stored  %s%n", kept ? "ok" : "WRONG");
+		correct &= kept;
+
+		small.clear();
+		int wrong = 0;
+		int hits = 0;
+		Random random = new Random(1);
+		for (int i = 0; i < 100_000; i++) {
+			long key = 1 + random.nextInt(1000);
+			long entry = small.probe(key);
+			if (entry != 0) {
+				hits++;
+				if (score(entry) != (int) (key * 31)) {
+					wrong++;
+				}
+			} else {
+				small.store(key, (int) (key * 31), false);
+			}
+		}
+		System.out.printf("8 entries for 1000 positions: %d hits, %d evictions, %d wrong scores  %s%n", hits,
+				small.getEvictions(), wrong, wrong == 0 ? "ok" : "WRONG");
+		correct &= wrong == 0;
+
+		EvaluationCache shared = new EvaluationCache(10);
+		AtomicLong sharedHits = new AtomicLong();
+		AtomicLong sharedWrong = new AtomicLong();
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threads.length; t++) {
+			long seed = t;
+			threads[t] = new Thread(() -> {
+				Random threadRandom = new Random(seed);
+				for (int i = 0; i < 2_000_000; i++) {
+					// the score is made of the key, a torn entry would show a score of another key
+					long key = threadRandom.nextLong() & 0xFFFFL | 1L << 40;
+					long entry = shared.probe(key);
+					if (entry != 0) {
+						sharedHits.incrementAndGet();
+						if (score(entry) != (int) (key * 31) || isLowerBound(entry) != ((key & 1) != 0)) {
+							sharedWrong.incrementAndGet();
+						}
+					} else {
+						shared.store(key, (int) (key * 31), (key & 1) != 0);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		System.out.printf("%d threads: %d hits, %d wrong scores  %s%n", threads.length, sharedHits.get(),
+				sharedWrong.get(), sharedWrong.get() == 0 ? "ok" : "WRONG");
+		correct &= sharedWrong.get() == 0;
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+	/** Writes an entry, the data first, so a reader in between sees a mismatch rather than a wrong score. */
+	private void write(int slot, long key, long data) {
+		SLOTS.setOpaque(slots, slot + 1, data);
+		SLOTS.setOpaque(slots, slot, key ^ data);
+	}
+
+	/** Spreads the key over the sets with a multiplicative hash.
+	 * @return the first slot of the set. */
+	private int set(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) << (WAY_BITS + 1);
+	}
+
+	/**
+	 * Holds the shared cache, created on first use.
+	 */
+	private static final class Shared {
+		/** The cache of the process. */
+		private static final EvaluationCache CACHE = new EvaluationCache(SHARED_BITS);
+
+		static {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(CACHE,
+						new ObjectName("fourthewin:type=EvaluationCache"));
+			} catch (JMException e) {
+				System.err.println("EvaluationCache, registering MBean failed: " + e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package ai;
+
+/**
+ * The management interface of an {@link EvaluationCache}.
+ */
+public interface EvaluationCacheMXBean {
+	/** @return number of entries the cache holds. */
+	int getCapacity();
+
+	/** @return number of lookups since the last clear. */
+	long getProbes();
+
+	/** @return number of lookups which found the position. */
+	long getHits();
+
+	/** @return hits / probes, 0 without probes. */
+	double getHitRate();
+
+	/** @return number of entries which replaced another position. */
+	long getEvictions();
+
+}
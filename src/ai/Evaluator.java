@@ -0,0 +1,299 @@
+package ai;
+
+import java.util.Random;
+
+import data.BoardGeometry;
+
+/**
+ * Scores positions from the view of the player to move, for the leaves of the search. The score adds up for both
+ * players, own minus opposing:
+ * <ul>
+ * <li>open lines: every place a line fits without opposing stones, weighted by the own stones in it,</li>
+ * <li>threats: empty cells which would complete a line, extra for threats on the rows the player gets by zugzwang
+ * (odd rows counted from 1 for the first player, even rows for the second),</li>
+ * <li>center: every stone by how close its column is to the middle.</li>
+ * </ul>
+ * Every term works on whole bitboards, one long operation for a bit of every cell. There is no SIMD across
+ * positions: batches of positions are passed as arrays of longs and are scored one after the other, the batch only
+ * shares the work for positions with the same stones of the player to move. {@link #main} checks the batch against
+ * single positions and measures both. Not thread-safe, every {@link Search} has its own.
+ */
+public final class Evaluator {
+	/** Scores stay within plus and minus this value. */
+	public static final int MAX_SCORE = 100_000;
+	/** Score of a position where the player to move wins with the next stone. */
+	static final int WIN_NEXT = 50_000;
+	/** Weight of an open line missing one, two or three stones. */
+	private static final int[] LINE_WEIGHTS = { 0, 16, 4, 1 };
+	/** Weight of a threat. */
+	private static final int THREAT = 24;
+	/** Extra weight of a threat on a row the player gets by zugzwang. */
+	private static final int PARITY_THREAT = 32;
+	/** Weight of a step towards the middle. */
+	private static final int CENTER = 3;
+
+	/** The rules of the geometry. */
+	private final Bitboards rules;
+	/** Bit shifts to the next stone of every direction a line fits in. */
+	private final int[] directions;
+	/** Stones in a row needed to win. */
+	private final int connect;
+	/** The first cell of every place a line fits in, for every direction. */
+	private final long[] lineStarts;
+	/** Weight of a line by the number of empty cells in it, 0 for lines without own stones. */
+	private final int[] lineWeights;
+	/** Bit planes of the center weight of every cell, plane i holds bit i of the weight. */
+	private final long[] centerPlanes;
+
+	/** Cells completing a line of the prepared stones. */
+	private long ownLineCells;
+	/** Center score of the prepared stones. */
+	private int ownCenter;
+	/** Places of lines without the prepared stones, for every direction. */
+	private final long[] withoutOwn;
+
+	/**Creates an evaluator for a geometry.
+	 * @param rules the rules of the geometry. */
+	public Evaluator(Bitboards rules) {
+		this.rules = rules;
+		BoardGeometry geometry = rules.getGeometry();
+		directions = geometry.getDirections();
+		connect = geometry.getConnect();
+
+		lineStarts = new long[directions.length];
+		withoutOwn = new long[directions.length];
+		for (int d = 0; d < directions.length; d++) {
+			long starts = rules.getFull();
+			for (int i = 1; i < connect; i++) {
+				starts &= rules.getFull() >>> (i * directions[d]);
+			}
+			lineStarts[d] = starts;
+		}
+		lineWeights = new int[LINE_WEIGHTS.length];
+		for (int empty = 1; empty < LINE_WEIGHTS.length && empty < connect; empty++) {
+			lineWeights[empty] = LINE_WEIGHTS[empty];
+		}
+
+		int columns = geometry.getColumns();
+		int maxWeight = (columns - 1) / 2;
+		centerPlanes = new long[32 - Integer.numberOfLeadingZeros(Math.max(1, maxWeight))];
+		for (int column = 0; column < columns; column++) {
+			int weight = maxWeight - Math.abs(2 * column - (columns - 1)) / 2;
+			for (int plane = 0; plane < centerPlanes.length; plane++) {
+				if ((weight & (1 << plane)) != 0) {
+					centerPlanes[plane] |= rules.getColumnMask(column);
+				}
+			}
+		}
+	}
+
+	/** @return the rules of the geometry. */
+	public Bitboards getRules() {
+		return rules;
+	}
+
+	/**Scores one position.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @return the score, positive if the player to move stands better. */
+	public int evaluate(long current, long mask) {
+		prepare(current);
+		return score(current, mask);
+	}
+
+	/**Scores a batch of positions, with the same results as {@link #evaluate(long, long)}. The terms depending only on
+	 * the stones of the player to move are computed once for a run of positions with the same stones, like the
+	 * children of one position, which all differ only by the stone the opponent dropped.
+	 * @param current the stones of the player to move of every position.
+	 * @param mask    all stones of every position.
+	 * @param count   number of positions.
+	 * @param scores  receives the scores.
+	 * @param limit   scoring stops after the first position scoring at most this, e.g. a cutoff of the search.
+	 * @return number of positions scored. */
+	public int evaluate(long[] current, long[] mask, int count, int[] scores, int limit) {
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || current[i] != current[i - 1]) {
+				prepare(current[i]);
+			}
+			scores[i] = score(current[i], mask[i]);
+			if (scores[i] <= limit) {
+				return i + 1;
+			}
+		}
+		return count;
+	}
+
+	/**Checks and measures the batch from the command line. Scores the children of random positions in batches and one
+	 * by one, exits with 1 if a score differs, and prints the time per position of both and the speed of searches
+	 * with and without batches of leaves, without the shared {@link EvaluationCache}.
+	 * @param args optionally {@code positions depth}, 2000 positions and searches to depth 9 if not given. */
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+		Bitboards rules = new Bitboards(BoardGeometry.STANDARD);
+		int columns = rules.getGeometry().getColumns();
+		Random random = new Random(1);
+		long[] roots = new long[2 * positions];
+		long[] current = new long[positions * columns];
+		long[] mask = new long[positions * columns];
+		int count = 0;
+		for (int p = 0; p < positions; p++) {
+			long rootCurrent;
+			long rootMask;
+			do {
+				rootCurrent = 0;
+				rootMask = 0;
+				for (int moves = 4 + random.nextInt(20); moves > 0; moves--) {
+					long move = rules.moveBit(rootMask, random.nextInt(columns));
+					if (rules.isLine(rootCurrent | move)) {
+						break;
+					}
+					rootCurrent = (rootCurrent | move) ^ (rootMask | move);
+					rootMask |= move;
+				}
+			} while (rules.playable(rootMask) == 0);
+			roots[2 * p] = rootCurrent;
+			roots[2 * p + 1] = rootMask;
+			// the children of one position share the stones of the player to move after it, like a batch of leaves
+			for (int column = 0; column < columns; column++) {
+				long move = rules.moveBit(rootMask, column);
+				if (move != 0) {
+					current[count] = rootCurrent ^ rootMask;
+					mask[count++] = rootMask | move;
+				}
+			}
+		}
+
+		Evaluator evaluator = new Evaluator(rules);
+		int[] scores = new int[count];
+		evaluator.evaluate(current, mask, count, scores, Integer.MIN_VALUE);
+		for (int i = 0; i < count; i++) {
+			if (scores[i] != evaluator.evaluate(current[i], mask[i])) {
+				System.out.println("WRONG score of position " + i);
+				System.exit(1);
+			}
+		}
+		System.out.println(count + " positions, batch and single scores equal");
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			long sum = 0;
+			for (int repeat = 0; repeat < 20; repeat++) {
+				evaluator.evaluate(current, mask, count, scores, Integer.MIN_VALUE);
+				sum += scores[repeat];
+			}
+			long batch = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int repeat = 0; repeat < 20; repeat++) {
+				for (int i = 0; i < count; i++) {
+					sum += evaluator.evaluate(current[i], mask[i]);
+				}
+			}
+			long single = System.nanoTime() - start;
+			System.out.printf("evaluate: batch %.1f ns, single %.1f ns per position (%d)%n", batch / (20.0 * count),
+					single / (20.0 * count), sum & 1);
+		}
+		for (int round = 0; round < 4; round++) {
+			boolean batch = round % 2 == 1;
+			long nodes = 0;
+			long nanos = 0;
+			for (int p = 0; p < Math.min(positions, 50); p++) {
+				Search search = new Search(rules);
+				search.setBatchLeaves(batch);
+				search.setEvaluationCache(null);
+				SearchResult result = search.search(roots[2 * p], roots[2 * p + 1], depth, 60_000);
+				nodes += result.getNodes();
+				nanos += result.getNanos();
+			}
+			System.out.printf("search to depth %d: %s %d nodes, %d nodes per second%n", depth,
+					batch ? "batch " : "single", nodes, (long) (nodes * 1e9 / nanos));
+		}
+	}
+
+	/**Computes the terms which only depend on the stones of the player to move.
+	 * @param current the stones of the player to move. */
+	private void prepare(long current) {
+		ownLineCells = rules.lineCells(current);
+		ownCenter = center(current);
+		for (int d = 0; d < directions.length; d++) {
+			long starts = lineStarts[d];
+			for (int i = 0; i < connect; i++) {
+				starts &= ~(current >>> (i * directions[d]));
+			}
+			withoutOwn[d] = starts;
+		}
+	}
+
+	/**Scores a position after {@link #prepare(long)} was called for its current stones.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @return the score. */
+	private int score(long current, long mask) {
+		long opponent = current ^ mask;
+		long ownThreats = ownLineCells & ~mask;
+		long opponentThreats = rules.winningCells(opponent, mask);
+		long playable = rules.playable(mask);
+		if ((ownThreats & playable) != 0) {
+			return WIN_NEXT;
+		}
+		if (Long.bitCount(opponentThreats & playable) > 1) {
+			return -WIN_NEXT;
+		}
+
+		// the first player has an even number of stones on the board when it is his turn
+		boolean first = (Long.bitCount(mask) & 1) == 0;
+		long ownRows = first ? rules.getOddRows() : rules.getEvenRows();
+		long opponentRows = first ? rules.getEvenRows() : rules.getOddRows();
+		int score = THREAT * (Long.bitCount(ownThreats) - Long.bitCount(opponentThreats))
+				+ PARITY_THREAT * (Long.bitCount(ownThreats & ownRows) - Long.bitCount(opponentThreats & opponentRows))
+				+ ownCenter - center(opponent);
+		long empty = rules.getFull() & ~mask;
+		for (int d = 0; d < directions.length; d++) {
+			score += lines(d, opponent, empty);
+		}
+		return score;
+	}
+
+	/**Scores the open lines of one direction for both players. The empty cells of each line are counted in bit
+	 * planes: emptyN holds the lines with at least N empty cells.
+	 * @param d        index of the direction.
+	 * @param opponent the stones of the opponent.
+	 * @param empty    the empty cells.
+	 * @return own minus opposing score. */
+	private int lines(int d, long opponent, long empty) {
+		int shift = directions[d];
+		long withoutOpponent = lineStarts[d];
+		long empty1 = 0;
+		long empty2 = 0;
+		long empty3 = 0;
+		long empty4 = 0;
+		for (int i = 0; i < connect; i++) {
+			int offset = i * shift;
+			withoutOpponent &= ~(opponent >>> offset);
+			long cell = empty >>> offset;
+			empty4 |= empty3 & cell;
+			empty3 |= empty2 & cell;
+			empty2 |= empty1 & cell;
+			empty1 |= cell;
+		}
+		long own = withoutOpponent;
+		long opposing = withoutOwn[d];
+		long missing1 = empty1 & ~empty2;
+		long missing2 = empty2 & ~empty3;
+		long missing3 = empty3 & ~empty4;
+		return lineWeights[1] * (Long.bitCount(missing1 & own) - Long.bitCount(missing1 & opposing))
+				+ lineWeights[2] * (Long.bitCount(missing2 & own) - Long.bitCount(missing2 & opposing))
+				+ lineWeights[3] * (Long.bitCount(missing3 & own) - Long.bitCount(missing3 & opposing));
+	}
+
+	/**Scores the stones of one player by their columns.
+	 * @param stones the stones.
+	 * @return the score. */
+	private int center(long stones) {
+		int score = 0;
+		for (int plane = 0; plane < centerPlanes.length; plane++) {
+			score += (CENTER << plane) * Long.bitCount(stones & centerPlanes[plane]);
+		}
+		return score;
+	}
+
+}
@@ -0,0 +1,465 @@
+package ai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import data.Board;
+import data.DataModell;
+import data.LongBoard;
+import data.Player;
+
+/**
+ * A computer player which plays random games instead of scoring positions: Monte-Carlo tree search with UCT. Its
+ * strength is set by the number of playouts, a few thousand make a casual opponent, a few hundred thousand a strong
+ * one. The playouts are random except that a player always takes a win and blocks a threat.
+ * The tree lives in an {@link Arena} of primitive arrays allocated once, so long matches don't make garbage. The
+ * subtree of the position played is kept for the next move: a search starting from a position one or two stones
+ * below the last root continues with what the last search found there.
+ * Several threads can grow one tree at the same time. A thread going down adds a virtual loss to every node it passes,
+ * which makes the next thread prefer other nodes until the playout is counted.
+ * One MonteCarloSearch is used by one thread at a time, it starts its own helpers.
+ */
+public final class MonteCarloSearch {
+	/** Weight of exploring rarely visited moves against playing the best ones. */
+	private static final double EXPLORATION = 1.4;
+	/** Visits counted for a thread passing a node, before its playout is counted. */
+	private static final int VIRTUAL_LOSS = 1;
+	/** Nodes other than the root are expanded after this many visits. */
+	private static final int EXPAND_VISITS = 2;
+	/** A position this many stones below the last root is found in the tree. */
+	private static final int REUSE_PLIES = 2;
+	/** First child of a node not expanded yet. */
+	private static final int UNEXPANDED = -1;
+	/** First child of a node being expanded by another thread. */
+	private static final int EXPANDING = -2;
+	/** Outcome of a position where the game goes on. */
+	private static final byte OPEN = 0;
+	/** Outcome of a position won by the player who moved into it. */
+	private static final byte WON = 1;
+	/** Outcome of a full board. */
+	private static final byte FULL = 2;
+	/** Reads and writes the ints of the arena atomically. */
+	private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/** The rules of the geometry. */
+	private final Bitboards rules;
+	/** The tree. */
+	private Arena tree;
+	/** The arena the tree is copied to when the root moves down. */
+	private Arena spare;
+	/** Copies of the tree: the node of the old arena for every node of the new one. */
+	private final int[] copiedFrom;
+	/** Helpers growing the tree, null for one thread. */
+	private final ExecutorService helpers;
+	/** Number of threads growing the tree. */
+	private final int threads;
+	/** The root of the tree, -1 for an empty tree. */
+	private int root = -1;
+
+	/**Creates a search.
+	 * @param rules    the rules of the geometry.
+	 * @param capacity number of nodes the tree can hold, twice this many are allocated. 2^20 take about 60 MiB.
+	 * @param threads  number of threads growing the tree. */
+	public MonteCarloSearch(Bitboards rules, int capacity, int threads) {
+		this.rules = rules;
+		tree = new Arena(capacity);
+		spare = new Arena(capacity);
+		copiedFrom = new int[capacity];
+		this.threads = threads;
+		if (threads > 1) {
+			AtomicInteger number = new AtomicInteger();
+			helpers = Executors.newFixedThreadPool(threads - 1, runnable -> {
+				Thread thread = new Thread(runnable, "MonteCarloSearch-" + number.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			helpers = null;
+		}
+	}
+
+	/** Stops the helper threads. */
+	public void close() {
+		if (helpers != null) {
+			helpers.shutdownNow();
+		}
+	}
+
+	/** @return number of nodes in the tree. */
+	public int getTreeSize() {
+		return tree.size.get();
+	}
+
+	/**Searches the current position of a game.
+	 * @param dataModell the game, not finished.
+	 * @param playouts   number of playouts.
+	 * @param maxMillis  the time after which no more playouts are started.
+	 * @return the result, see {@link #search(long, long, int, long)}. */
+	public SearchResult search(DataModell dataModell, int playouts, long maxMillis) {
+		LongBoard board = (LongBoard) Board.create(rules.getGeometry());
+		Player player;
+		synchronized (dataModell) {
+			dataModell.copyBoard(board);
+			player = dataModell.getCurrentPlayer();
+		}
+		return search(board.getStones(player), Bitboards.mask(board), playouts, maxMillis);
+	}
+
+	/**Searches a position with a budget of playouts. The playouts of the last search in the subtree of the position
+	 * are counted as well.
+	 * @param current   the stones of the player to move.
+	 * @param mask      all stones.
+	 * @param playouts  number of playouts.
+	 * @param maxMillis the time after which no more playouts are started.
+	 * @return the most visited column; its score is the share of the playouts through it won by the player to move
+	 *         in per mille, draws counting half, the depth is the deepest node of the tree and the nodes are the
+	 *         playouts. Column -1 if the board is full or somebody has already won. Without playouts the column is
+	 *         the first one of the tree. */
+	public SearchResult search(long current, long mask, int playouts, long maxMillis) {
+		long start = System.nanoTime();
+		if (rules.isLine(current ^ mask) || rules.playable(mask) == 0) {
+			return new SearchResult(-1, 0, 0, 0, System.nanoTime() - start);
+		}
+		moveRoot(current, mask);
+
+		long deadline = start + maxMillis * 1_000_000L;
+		AtomicInteger budget = new AtomicInteger(playouts);
+		AtomicInteger maxDepth = new AtomicInteger();
+		List<Future<Integer>> running = new ArrayList<>();
+		for (int i = 1; i < threads; i++) {
+			long seed = start + i;
+			running.add(helpers.submit(() -> grow(budget, deadline, seed, maxDepth)));
+		}
+		long played = grow(budget, deadline, start, maxDepth);
+		for (Future<Integer> future : running) {
+			try {
+				played += future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		Arena arena = tree;
+		int best = -1;
+		int first = arena.firstChild[root];
+		for (int child = first; first >= 0 && child < first + arena.children[root]; child++) {
+			if (best < 0 || arena.visits[child] > arena.visits[best]) {
+				best = child;
+			}
+		}
+		if (best < 0) {
+			// the arena is full and the root could not be expanded
+			return new SearchResult(-1, 0, 0, played, System.nanoTime() - start);
+		}
+		int visits = arena.visits[best];
+		int score = visits == 0 ? 500 : (int) (500L * arena.points[best] / visits);
+		return new SearchResult(arena.column[best], score, maxDepth.get(), played, System.nanoTime() - start);
+	}
+
+	/**Makes a position the root: the node of the position if it is in the tree, a new tree otherwise. The root is
+	 * expanded, so it has children even if no playout runs.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones. */
+	private void moveRoot(long current, long mask) {
+		int node = root < 0 ? -1 : find(root, current, mask, REUSE_PLIES);
+		if (node < 0) {
+			tree.clear();
+			root = tree.allocate(1);
+			tree.set(root, current, mask, -1, OPEN);
+		} else if (node != root) {
+			copy(node);
+		}
+		if (tree.firstChild[root] == UNEXPANDED) {
+			expand(tree, root);
+		}
+	}
+
+	/**Looks for a position below a node.
+	 * @return the node of the position or -1. */
+	private int find(int node, long current, long mask, int plies) {
+		if (tree.current[node] == current && tree.mask[node] == mask) {
+			return node;
+		}
+		int first = tree.firstChild[node];
+		if (plies == 0 || first < 0 || (tree.mask[node] & ~mask) != 0) {
+			return -1;
+		}
+		for (int child = first; child < first + tree.children[node]; child++) {
+			int found = find(child, current, mask, plies - 1);
+			if (found >= 0) {
+				return found;
+			}
+		}
+		return -1;
+	}
+
+	/**Copies the subtree of a node into the spare arena, which becomes the tree, and makes the node the root. The
+	 * nodes are copied in breadth-first order, so the children of every node stay next to each other.
+	 * @param node the new root. */
+	private void copy(int node) {
+		spare.clear();
+		int newRoot = spare.allocate(1);
+		tree.copyTo(node, spare, newRoot, spare.firstChild[newRoot]);
+		copiedFrom[newRoot] = node;
+		for (int copied = newRoot; copied < spare.size.get(); copied++) {
+			int original = copiedFrom[copied];
+			int first = tree.firstChild[original];
+			if (first < 0) {
+				spare.firstChild[copied] = UNEXPANDED;
+				continue;
+			}
+			int count = tree.children[original];
+			int block = spare.allocate(count);
+			for (int i = 0; i < count; i++) {
+				tree.copyTo(first + i, spare, block + i, UNEXPANDED);
+				copiedFrom[block + i] = first + i;
+			}
+			spare.firstChild[copied] = block;
+		}
+		Arena old = tree;
+		tree = spare;
+		spare = old;
+		root = newRoot;
+	}
+
+	/**Runs playouts until the budget or the time is used up. Runs on every thread growing the tree.
+	 * @param budget   the playouts left, shared by the threads.
+	 * @param deadline when to stop, in System.nanoTime().
+	 * @param seed     the seed of the random numbers.
+	 * @param maxDepth receives the depth of the deepest node reached.
+	 * @return number of playouts run by this thread. */
+	private int grow(AtomicInteger budget, long deadline, long seed, AtomicInteger maxDepth) {
+		Arena arena = tree;
+		int[] path = new int[rules.getGeometry().getCells() + 2];
+		long[] random = { seed * 0x9E3779B97F4A7C15L | 1 };
+		int deepest = 0;
+		int played = 0;
+		// the clock is looked at before the budget, a playout taken from it is always run
+		while ((played & 0xFF) != 0 || System.nanoTime() <= deadline) {
+			if (budget.getAndDecrement() <= 0) {
+				break;
+			}
+			deepest = Math.max(deepest, playout(arena, path, random));
+			played++;
+		}
+		maxDepth.accumulateAndGet(deepest, Math::max);
+		return played;
+	}
+
+	/**Goes down the tree by UCT, expands the node reached, plays a random game from it and counts the result in
+	 * every node passed.
+	 * @return the depth of the node reached. */
+	private int playout(Arena arena, int[] path, long[] random) {
+		int node = root;
+		int length = 0;
+		path[length++] = node;
+		while (arena.outcome[node] == OPEN) {
+			int first = (int) INTS.getAcquire(arena.firstChild, node);
+			if (first == UNEXPANDED && (node == root || arena.visits(node) >= EXPAND_VISITS)) {
+				first = expand(arena, node);
+			}
+			if (first < 0) {
+				break;
+			}
+			node = select(arena, node, first);
+			INTS.getAndAdd(arena.visits, node, VIRTUAL_LOSS);
+			path[length++] = node;
+		}
+
+		// points of the player who moved into the node: 2 for a win, 1 for a draw
+		int points;
+		switch (arena.outcome[node]) {
+		case WON:
+			points = 2;
+			break;
+		case FULL:
+			points = 1;
+			break;
+		default:
+			points = 2 - randomGame(arena.current[node], arena.mask[node], random);
+			break;
+		}
+		for (int i = length - 1; i >= 0; i--) {
+			INTS.getAndAdd(arena.visits, path[i], i == 0 ? 1 : 1 - VIRTUAL_LOSS);
+			INTS.getAndAdd(arena.points, path[i], points);
+			points = 2 - points;
+		}
+		return length - 1;
+	}
+
+	/**Creates the children of a node, unless another thread does.
+	 * @return the first child, negative if the node was not expanded. */
+	private int expand(Arena arena, int node) {
+		if (!INTS.compareAndSet(arena.firstChild, node, UNEXPANDED, EXPANDING)) {
+			return -1;
+		}
+		long current = arena.current[node];
+		long mask = arena.mask[node];
+		long playable = rules.playable(mask);
+		int first = arena.allocate(Long.bitCount(playable));
+		if (first < 0) {
+			// the arena is full, the tree stops growing
+			INTS.setRelease(arena.firstChild, node, UNEXPANDED);
+			return -1;
+		}
+		long wins = rules.winningCells(current, mask);
+		int child = first;
+		for (long moves = playable; moves != 0; moves &= moves - 1) {
+			long move = moves & -moves;
+			byte outcome = (wins & move) != 0 ? WON : (mask | move) == rules.getFull() ? FULL : OPEN;
+			arena.set(child, current ^ mask, mask | move, rules.column(move), outcome);
+			child++;
+		}
+		arena.children[node] = (byte) (child - first);
+		INTS.setRelease(arena.firstChild, node, first);
+		return first;
+	}
+
+	/**Picks the child with the best upper confidence bound, a child without visits first.
+	 * @return the child. */
+	private int select(Arena arena, int node, int first) {
+		double logVisits = Math.log(Math.max(1, arena.visits(node)));
+		int best = first;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int child = first; child < first + arena.children[node]; child++) {
+			int visits = arena.visits(child);
+			if (visits == 0) {
+				return child;
+			}
+			double value = (int) INTS.getOpaque(arena.points, child) / (2.0 * visits)
+					+ EXPLORATION * Math.sqrt(logVisits / visits);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**Plays a game to the end with random moves, except that a win is always taken and a threat always blocked.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @param random  the state of the random numbers.
+	 * @return the points of the player to move: 2 for a win, 1 for a draw, 0 for a loss. */
+	private int randomGame(long current, long mask, long[] random) {
+		int points = 2;
+		while (true) {
+			long playable = rules.playable(mask);
+			if (playable == 0) {
+				return 1;
+			}
+			if ((rules.winningCells(current, mask) & playable) != 0) {
+				return points;
+			}
+			long threats = rules.winningCells(current ^ mask, mask) & playable;
+			long move;
+			if (threats != 0) {
+				move = threats & -threats;
+			} else {
+				// xorshift, then the k-th playable cell
+				long x = random[0];
+				x ^= x << 13;
+				x ^= x >>> 7;
+				x ^= x << 17;
+				random[0] = x;
+				int k = (int) (((x >>> 32) * Long.bitCount(playable)) >>> 32);
+				for (int i = 0; i < k; i++) {
+					playable &= playable - 1;
+				}
+				move = playable & -playable;
+			}
+			current ^= mask;
+			mask |= move;
+			points = 2 - points;
+		}
+	}
+
+	/**
+	 * The nodes of a tree in primitive arrays, a node is an index. The children of a node are next to each other.
+	 */
+	private static final class Arena {
+		/** The stones of the player to move in every node. */
+		private final long[] current;
+		/** All stones of every node. */
+		private final long[] mask;
+		/** The first child, {@link #UNEXPANDED} or {@link #EXPANDING}. */
+		private final int[] firstChild;
+		/** Number of children. */
+		private final byte[] children;
+		/** The column played into the node. */
+		private final byte[] column;
+		/** OPEN, WON or FULL. */
+		private final byte[] outcome;
+		/** Number of playouts through the node, plus the virtual losses of threads passing it. */
+		private final int[] visits;
+		/** Points of the player who moved into the node: 2 for every win, 1 for every draw. */
+		private final int[] points;
+		/** Number of nodes used. */
+		private final AtomicInteger size = new AtomicInteger();
+
+		/** @param capacity number of nodes. */
+		private Arena(int capacity) {
+			current = new long[capacity];
+			mask = new long[capacity];
+			firstChild = new int[capacity];
+			children = new byte[capacity];
+			column = new byte[capacity];
+			outcome = new byte[capacity];
+			visits = new int[capacity];
+			points = new int[capacity];
+		}
+
+		/** Forgets all nodes. */
+		private void clear() {
+			size.set(0);
+		}
+
+		/**Takes nodes next to each other.
+		 * @param count number of nodes.
+		 * @return the first node, -1 if the arena is full. */
+		private int allocate(int count) {
+			int first = size.getAndAdd(count);
+			if (first + count > current.length) {
+				size.getAndAdd(-count);
+				return -1;
+			}
+			return first;
+		}
+
+		/** Initializes a node without visits and children. */
+		private void set(int node, long current, long mask, int column, byte outcome) {
+			this.current[node] = current;
+			this.mask[node] = mask;
+			this.column[node] = (byte) column;
+			this.outcome[node] = outcome;
+			firstChild[node] = UNEXPANDED;
+			children[node] = 0;
+			visits[node] = 0;
+			points[node] = 0;
+		}
+
+		/** Copies a node with its counts to another arena, with another first child. */
+		private void copyTo(int node, Arena target, int targetNode, int targetFirstChild) {
+			target.set(targetNode, current[node], mask[node], column[node], outcome[node]);
+			target.children[targetNode] = children[node];
+			target.visits[targetNode] = visits[node];
+			target.points[targetNode] = points[node];
+			target.firstChild[targetNode] = targetFirstChild;
+		}
+
+		/** @return the visits of a node, read while other threads count them. */
+		private int visits(int node) {
+			return (int) INTS.getOpaque(visits, node);
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+package ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import data.Board;
+import data.BoardGeometry;
+import data.DataModell;
+import data.LongBoard;
+import data.Player;
+
+/**
+ * Enumerates every position reachable within a number of stones, like perft for chess engines. It counts the move
+ * sequences of every length, the different positions among them and how many end with a win or a full board; games
+ * are not continued after a win. The work is split over all processors with fork-join, the different positions are
+ * collected in one {@link ConcurrentLongSet}.
+ * Being the move generation and win detection of the {@link Search} without the search, this is both a benchmark of
+ * them and a check against the numbers known for the classic board, see {@link #main(String[])}.
+ */
+public final class Perft {
+	/** Number of different positions after 0, 1, 2, ... stones on the classic board, OEIS A212693. */
+	static final long[] CLASSIC_UNIQUE = { 1, 7, 49, 238, 1120, 4263, 16422, 54859, 184275, 558186, 1662623, 4568683,
+			12236101, 30929111, 75437595, 176541259, 394591391, 858218743, 1763883894, 3568259802L };
+	/** Subtrees with at most this many plies left are walked by one thread. */
+	private static final int SEQUENTIAL_DEPTH = 5;
+	/** Index of the wins of the first player in the counts. */
+	private static final int FIRST_WINS = 0;
+	/** Index of the wins of the second player in the counts. */
+	private static final int SECOND_WINS = 1;
+	/** Index of the full boards in the counts. */
+	private static final int DRAWS = 2;
+	/** Index of the sequences of length 0 in the counts, followed by the other lengths. */
+	private static final int POSITIONS = 3;
+
+	/** The rules of the geometry. */
+	private final Bitboards rules;
+	/** Runs the walks. */
+	private final ForkJoinPool pool;
+
+	/**Creates an enumerator using all processors.
+	 * @param rules the rules of the geometry. */
+	public Perft(Bitboards rules) {
+		this(rules, ForkJoinPool.commonPool());
+	}
+
+	/**Creates an enumerator.
+	 * @param rules the rules of the geometry.
+	 * @param pool  the pool to run in. */
+	public Perft(Bitboards rules, ForkJoinPool pool) {
+		this.rules = rules;
+		this.pool = pool;
+	}
+
+	/**Enumerates the positions reachable from the current position of a game.
+	 * @param dataModell the game.
+	 * @param depth      number of stones to play.
+	 * @param setBits    the set of different positions holds 2^setBits of them, 0 to not count them.
+	 * @return the counts.
+	 * @throws IllegalStateException if there are more different positions than fit in the set. */
+	public PerftResult run(DataModell dataModell, int depth, int setBits) {
+		LongBoard board = (LongBoard) Board.create(rules.getGeometry());
+		Player player;
+		synchronized (dataModell) {
+			dataModell.copyBoard(board);
+			player = dataModell.getCurrentPlayer();
+		}
+		return run(board.getStones(player), Bitboards.mask(board), player, depth, setBits);
+	}
+
+	/**Enumerates the positions reachable from a position.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @param player  the player to move, to tell the wins apart.
+	 * @param depth   number of stones to play.
+	 * @param setBits the set of different positions holds 2^setBits of them, 0 to not count them.
+	 * @return the counts.
+	 * @throws IllegalStateException if there are more different positions than fit in the set. */
+	public PerftResult run(long current, long mask, Player player, int depth, int setBits) {
+		ConcurrentLongSet set = setBits > 0 ? new ConcurrentLongSet(setBits) : null;
+		long[] unique = set != null ? new long[depth + 1] : null;
+		long start = System.nanoTime();
+		long[] counts;
+		if (rules.isLine(current ^ mask)) {
+			// the game is already over
+			counts = new long[POSITIONS + depth + 1];
+			counts[POSITIONS] = 1;
+			if (set != null) {
+				unique[0] = 1;
+			}
+		} else {
+			counts = pool.invoke(new Walk(current, mask, depth, 0, set));
+			if (set != null) {
+				System.arraycopy(counts, POSITIONS + depth + 1, unique, 0, depth + 1);
+			}
+		}
+		long[] positions = new long[depth + 1];
+		System.arraycopy(counts, POSITIONS, positions, 0, depth + 1);
+		return new PerftResult(player, positions, unique, new long[] { counts[FIRST_WINS], counts[SECOND_WINS] },
+				counts[DRAWS], System.nanoTime() - start);
+	}
+
+	/**Runs the enumerator from the command line and prints the counts of every ply. On the empty classic board the
+	 * counts are checked: there are 7^n sequences of n stones before the first possible win, and the numbers of
+	 * different positions are known.
+	 * @param args {@code depth} and optionally {@code board columns rows connect}, {@code moves c1 c2 ...} to start
+	 *             after the given columns and {@code set bits} for the size of the set of different positions, 0
+	 *             to only count the sequences. */
+	public static void main(String[] args) {
+		int depth = Integer.parseInt(args[0]);
+		BoardGeometry geometry = BoardGeometry.STANDARD;
+		int setBits = 24;
+		List<Integer> moves = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("board")) {
+				geometry = new BoardGeometry(Integer.parseInt(args[i + 1]), Integer.parseInt(args[i + 2]),
+						Integer.parseInt(args[i + 3]));
+				i += 3;
+			} else if (args[i].equals("set")) {
+				setBits = Integer.parseInt(args[++i]);
+			} else if (!args[i].equals("moves")) {
+				moves.add(Integer.parseInt(args[i]));
+			}
+		}
+		DataModell game = new DataModell(geometry);
+		for (int column : moves) {
+			if (!game.makeTurn(column)) {
+				throw new IllegalArgumentException("Illegal move " + column);
+			}
+		}
+		boolean classic = geometry.equals(BoardGeometry.STANDARD) && moves.isEmpty();
+
+		Perft perft = new Perft(new Bitboards(geometry));
+		PerftResult result = perft.run(game, depth, setBits);
+		boolean correct = true;
+		System.out.println("ply      sequences         unique");
+		for (int ply = 0; ply <= depth; ply++) {
+			String check = "";
+			if (classic) {
+				boolean sequencesKnown = ply < 2 * geometry.getConnect() - 1;
+				boolean uniqueKnown = result.hasUnique() && ply < CLASSIC_UNIQUE.length;
+				boolean ok = (!sequencesKnown || result.getPositions(ply) == pow(geometry.getColumns(), ply))
+						&& (!uniqueKnown || result.getUnique(ply) == CLASSIC_UNIQUE[ply]);
+				check = sequencesKnown || uniqueKnown ? ok ? "  ok" : "  WRONG" : "";
+				correct &= ok;
+			}
+			System.out.printf("%3d %14d %14d%s%n", ply, result.getPositions(ply), result.getUnique(ply), check);
+		}
+		System.out.println(result);
+		System.out.printf("%.3f s, %d positions per second on %d threads%n", result.getNanos() / 1e9,
+				result.getNodesPerSecond(), perft.pool.getParallelism());
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+	/** @return base^exponent. */
+	private static long pow(long base, int exponent) {
+		long power = 1;
+		for (int i = 0; i < exponent; i++) {
+			power *= base;
+		}
+		return power;
+	}
+
+	/**
+	 * Walks the positions below one position, forking a task for every move while many plies are left.
+	 */
+	private final class Walk extends RecursiveTask<long[]> {
+		/** Version of the serialized form, tasks are never serialized. */
+		private static final long serialVersionUID = 1L;
+
+		/** The stones of the player to move. */
+		private final long current;
+		/** All stones. */
+		private final long mask;
+		/** Plies left. */
+		private final int depth;
+		/** Stones played since the start. */
+		private final int ply;
+		/** The different positions, null to not count them. */
+		private final ConcurrentLongSet set;
+		/** Number of plies counted, the depth of the run plus 1. */
+		private final int plies;
+
+		/**Creates a walk of a position which is not won.
+		 * @param current the stones of the player to move.
+		 * @param mask    all stones.
+		 * @param depth   plies left.
+		 * @param ply     stones played since the start.
+		 * @param set     the different positions, null to not count them. */
+		private Walk(long current, long mask, int depth, int ply, ConcurrentLongSet set) {
+			this.current = current;
+			this.mask = mask;
+			this.depth = depth;
+			this.ply = ply;
+			this.set = set;
+			plies = ply + depth + 1;
+		}
+
+		/** @return the counts: wins, draws, the sequences and the different positions of every ply. */
+		@Override
+		protected long[] compute() {
+			long[] counts = new long[POSITIONS + 2 * plies];
+			if (depth <= SEQUENTIAL_DEPTH) {
+				walk(current, mask, depth, ply, counts);
+				return counts;
+			}
+
+			count(current, mask, ply, counts);
+			long playable = rules.playable(mask);
+			if (playable == 0) {
+				counts[DRAWS]++;
+				return counts;
+			}
+			long opponent = current ^ mask;
+			long wins = rules.winningCells(current, mask) & playable;
+			Walk[] children = new Walk[Long.bitCount(playable)];
+			int count = 0;
+			for (long moves = playable; moves != 0; moves &= moves - 1) {
+				long move = moves & -moves;
+				if ((wins & move) != 0) {
+					won(opponent, mask | move, ply + 1, counts);
+				} else {
+					children[count++] = new Walk(opponent, mask | move, depth - 1, ply + 1, set);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				children[i].fork();
+			}
+			for (int i = count - 1; i >= 0; i--) {
+				long[] child = children[i].join();
+				for (int j = 0; j < counts.length; j++) {
+					counts[j] += child[j];
+				}
+			}
+			return counts;
+		}
+
+		/**Walks a position which is not won, on this thread.
+		 * @param current the stones of the player to move.
+		 * @param mask    all stones.
+		 * @param depth   plies left.
+		 * @param ply     stones played since the start.
+		 * @param counts  the counts to add to. */
+		private void walk(long current, long mask, int depth, int ply, long[] counts) {
+			count(current, mask, ply, counts);
+			long playable = rules.playable(mask);
+			if (playable == 0) {
+				counts[DRAWS]++;
+				return;
+			}
+			if (depth == 0) {
+				return;
+			}
+			long opponent = current ^ mask;
+			long wins = rules.winningCells(current, mask) & playable;
+			for (long moves = playable; moves != 0; moves &= moves - 1) {
+				long move = moves & -moves;
+				if ((wins & move) != 0) {
+					won(opponent, mask | move, ply + 1, counts);
+				} else {
+					walk(opponent, mask | move, depth - 1, ply + 1, counts);
+				}
+			}
+		}
+
+		/**Counts a position reached by a winning move.
+		 * @param loser  the stones of the loser, who would move next.
+		 * @param mask   all stones.
+		 * @param ply    stones played since the start.
+		 * @param counts the counts to add to. */
+		private void won(long loser, long mask, int ply, long[] counts) {
+			count(loser, mask, ply, counts);
+			counts[ply % 2 == 1 ? FIRST_WINS : SECOND_WINS]++;
+		}
+
+		/**Counts a position.
+		 * @param current the stones of the player to move.
+		 * @param mask    all stones.
+		 * @param ply     stones played since the start.
+		 * @param counts  the counts to add to. */
+		private void count(long current, long mask, int ply, long[] counts) {
+			counts[POSITIONS + ply]++;
+			if (set != null && set.add(rules.key(current, mask))) {
+				counts[POSITIONS + plies + ply]++;
+			}
+		}
+	}
+
+}
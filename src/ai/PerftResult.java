@@ -0,0 +1,103 @@
+package ai;
+
+import data.Player;
+
+/**
+ * The outcome of a {@link Perft} run: how many positions there are at every ply up to the depth, and how the games
+ * ended on the way.
+ */
+public final class PerftResult {
+	/** The player to move at the start. */
+	private final Player first;
+	/** Number of move sequences of every length, the positions reached counted once per way to reach them. */
+	private final long[] positions;
+	/** Number of different positions at every ply, null if not counted. */
+	private final long[] unique;
+	/** Sequences won by the player to move at the start and by the other one. */
+	private final long[] wins;
+	/** Sequences ending with a full board. */
+	private final long draws;
+	/** Duration of the run. */
+	private final long nanos;
+
+	/**Creates a result.
+	 * @param first     the player to move at the start.
+	 * @param positions number of move sequences of every length.
+	 * @param unique    number of different positions at every ply, null if not counted.
+	 * @param wins      sequences won by the player to move at the start and by the other one.
+	 * @param draws     sequences ending with a full board.
+	 * @param nanos     duration of the run. */
+	PerftResult(Player first, long[] positions, long[] unique, long[] wins, long draws, long nanos) {
+		this.first = first;
+		this.positions = positions;
+		this.unique = unique;
+		this.wins = wins;
+		this.draws = draws;
+		this.nanos = nanos;
+	}
+
+	/** @return the depth enumerated. */
+	public int getDepth() {
+		return positions.length - 1;
+	}
+
+	/** @return number of move sequences of the full depth, the leaves. */
+	public long getLeaves() {
+		return positions[positions.length - 1];
+	}
+
+	/** @param ply a ply up to the depth.
+	 * @return number of move sequences of this length. */
+	public long getPositions(int ply) {
+		return positions[ply];
+	}
+
+	/** @return number of positions visited, at all plies. */
+	public long getNodes() {
+		long nodes = 0;
+		for (long count : positions) {
+			nodes += count;
+		}
+		return nodes;
+	}
+
+	/** @return true if the different positions were counted. */
+	public boolean hasUnique() {
+		return unique != null;
+	}
+
+	/** @param ply a ply up to the depth.
+	 * @return number of different positions after this many stones, -1 if not counted. */
+	public long getUnique(int ply) {
+		return unique == null ? -1 : unique[ply];
+	}
+
+	/** @param player YELLOW or RED.
+	 * @return number of move sequences won by the player. */
+	public long getWins(Player player) {
+		return player == first ? wins[0] : wins[1];
+	}
+
+	/** @return number of move sequences ending with a full board. */
+	public long getDraws() {
+		return draws;
+	}
+
+	/** @return duration of the run in nanoseconds. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/** @return positions visited per second. */
+	public long getNodesPerSecond() {
+		return nanos == 0 ? 0 : (long) (getNodes() * 1e9 / nanos);
+	}
+
+	@Override
+	public String toString() {
+		return "depth " + getDepth() + " leaves " + getLeaves() + " unique " + getUnique(getDepth()) + " yellow wins "
+				+ getWins(Player.YELLOW) + " red wins " + getWins(Player.RED) + " draws " + draws + " nps "
+				+ getNodesPerSecond();
+	}
+
+}
@@ -0,0 +1,414 @@
+package ai;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import data.Board;
+import data.DataModell;
+import data.LongBoard;
+import data.Player;
+import metrics.SearchEvent;
+
+/**
+ * The computer player: a depth-limited negamax search with alpha-beta pruning, iterative deepening and a
+ * {@link TranspositionTable}. Moves which let the opponent win at once are never searched. The positions one move
+ * before the horizon collect all their children and hand them to the {@link Evaluator} as one batch, so the work
+ * on the stones the children share is done once. Their scores are kept in an {@link EvaluationCache}, by default the
+ * one shared by all searches of the process, so searches of games running side by side score each of these
+ * positions once. The transposition table can be saved to a snapshot file and loaded again by a later process, so
+ * the search does not start without knowledge after a restart.
+ * One Search is used by one thread at a time.
+ */
+public final class Search {
+	/** Score of winning with the next stone, winning later scores one less for every stone played before. */
+	public static final int WIN = 1_000_000;
+	/** Scores beyond this are forced wins or losses. */
+	static final int WIN_BOUND = WIN - 1000;
+	/** Slots of the transposition table as a power of two. */
+	private static final int TABLE_BITS = 20;
+	/** The clock is looked at every this many positions. */
+	private static final int CLOCK_INTERVAL = 1 << 12;
+
+	/** The rules of the geometry. */
+	private final Bitboards rules;
+	/** Scores the leaves. */
+	private final Evaluator evaluator;
+	/** Results of searched positions. */
+	private TranspositionTable table = new TranspositionTable(TABLE_BITS);
+	/** The columns from the middle outwards, the usual order of the moves. */
+	private final int[] order;
+	/** The children of a position before the horizon: stones of the player to move. */
+	private final long[] leafCurrent;
+	/** The children of a position before the horizon: all stones. */
+	private final long[] leafMask;
+	/** The scores of the children. */
+	private final int[] leafScores;
+	/** If false the leaves are scored one by one, for comparison. */
+	private boolean batchLeaves = true;
+	/** Scores of the positions before the horizon, null for none. */
+	private EvaluationCache cache = EvaluationCache.getShared();
+
+	/** Condition to stop the running search early. */
+	private BooleanSupplier stop;
+	/** Set if the running iteration ran out of time or was stopped. */
+	private boolean aborted;
+	/** When the running search has to stop, in System.nanoTime(). */
+	private long deadline;
+	/** Depth of the running iteration. */
+	private int iteration;
+	/** Positions visited by the running search. */
+	private long nodes;
+	/** Lookups in the cache by the running search. */
+	private long cacheProbes;
+	/** Lookups which found the position. */
+	private long cacheHits;
+
+	/**Creates a search for a geometry.
+	 * @param rules the rules of the geometry. */
+	public Search(Bitboards rules) {
+		this.rules = rules;
+		evaluator = new Evaluator(rules);
+		int columns = rules.getGeometry().getColumns();
+		order = new int[columns];
+		for (int i = 0; i < columns; i++) {
+			// middle, then alternating right and left of it
+			order[i] = columns / 2 + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+		}
+		leafCurrent = new long[columns];
+		leafMask = new long[columns];
+		leafScores = new int[columns];
+	}
+
+	/** @return the rules of the geometry. */
+	public Bitboards getRules() {
+		return rules;
+	}
+
+	/** @return the evaluator scoring the leaves. */
+	public Evaluator getEvaluator() {
+		return evaluator;
+	}
+
+	/** @param batchLeaves false to score the leaves one by one instead of as a batch. */
+	public void setBatchLeaves(boolean batchLeaves) {
+		this.batchLeaves = batchLeaves;
+	}
+
+	/**Replaces the transposition table by a snapshot written by {@link #saveTable(Path)}. The snapshot is mapped, its
+	 * slots are read and checked when the search first needs them; damaged parts are left empty.
+	 * @param file the name of the snapshot, which is two files with ".0" and ".1" appended.
+	 * @return true if the snapshot was loaded, false if there is none or it was made for another geometry or version
+	 *         of the table.
+	 * @throws IOException if the snapshot can't be read. */
+	public boolean loadTable(Path file) throws IOException {
+		TranspositionTable loaded = TranspositionTable.load(file, rules.getGeometry(), TABLE_BITS);
+		if (loaded == null) {
+			return false;
+		}
+		table = loaded;
+		return true;
+	}
+
+	/**Writes the transposition table to a snapshot, unless nothing was stored since it was loaded or last saved. Not
+	 * while searching.
+	 * @param file the name of the snapshot, which is two files with ".0" and ".1" appended.
+	 * @return true if the snapshot was written.
+	 * @throws IOException if the snapshot can't be written. */
+	public boolean saveTable(Path file) throws IOException {
+		if (!table.isChanged()) {
+			return false;
+		}
+		table.save(file, rules.getGeometry());
+		return true;
+	}
+
+	/** @param cache the cache for the scores of the positions before the horizon, null for none. */
+	public void setEvaluationCache(EvaluationCache cache) {
+		this.cache = cache;
+	}
+
+	/**Searches the current position of a game.
+	 * @param dataModell the game, not finished.
+	 * @param maxDepth   the depth of the last iteration.
+	 * @param maxMillis  the time after which no new iteration is started and the running one is abandoned.
+	 * @return the result. */
+	public SearchResult search(DataModell dataModell, int maxDepth, long maxMillis) {
+		return search(dataModell, maxDepth, maxMillis, () -> false);
+	}
+
+	/**Searches the current position of a game until the time is up or it is stopped.
+	 * @param dataModell the game, not finished.
+	 * @param maxDepth   the depth of the last iteration.
+	 * @param maxMillis  the time after which no new iteration is started and the running one is abandoned.
+	 * @param stop       looked at every few thousand positions, once true the running iteration is abandoned. Any
+	 *                   thread may make it true, the first iteration always completes.
+	 * @return the result. */
+	public SearchResult search(DataModell dataModell, int maxDepth, long maxMillis, BooleanSupplier stop) {
+		LongBoard board = (LongBoard) Board.create(rules.getGeometry());
+		Player player;
+		synchronized (dataModell) {
+			dataModell.copyBoard(board);
+			player = dataModell.getCurrentPlayer();
+		}
+		return search(board.getStones(player), Bitboards.mask(board), maxDepth, maxMillis, stop);
+	}
+
+	/**Searches a position with iterative deepening. The first iteration always completes.
+	 * @param current   the stones of the player to move.
+	 * @param mask      all stones.
+	 * @param maxDepth  the depth of the last iteration.
+	 * @param maxMillis the time after which no new iteration is started and the running one is abandoned.
+	 * @return the result, column -1 if the board is full or somebody has already won. */
+	public SearchResult search(long current, long mask, int maxDepth, long maxMillis) {
+		return search(current, mask, maxDepth, maxMillis, () -> false);
+	}
+
+	/**Searches a position with iterative deepening until the time is up or it is stopped.
+	 * @param current   the stones of the player to move.
+	 * @param mask      all stones.
+	 * @param maxDepth  the depth of the last iteration.
+	 * @param maxMillis the time after which no new iteration is started and the running one is abandoned.
+	 * @param stop      looked at every few thousand positions, once true the running iteration is abandoned.
+	 * @return the result, column -1 if the board is full or somebody has already won. */
+	public SearchResult search(long current, long mask, int maxDepth, long maxMillis, BooleanSupplier stop) {
+		SearchEvent event = new SearchEvent();
+		event.begin();
+		long start = System.nanoTime();
+		deadline = start + maxMillis * 1_000_000L;
+		this.stop = stop;
+		aborted = false;
+		nodes = 0;
+		table.resetCounters();
+		cacheProbes = 0;
+		cacheHits = 0;
+
+		int bestColumn = -1;
+		int bestScore = 0;
+		int depth = 0;
+		if (!rules.isLine(current ^ mask) && rules.playable(mask) != 0) {
+			for (iteration = 1; iteration <= maxDepth; iteration++) {
+				long result = searchRoot(current, mask, iteration);
+				if (aborted) {
+					break;
+				}
+				bestColumn = (int) (result >> 32);
+				bestScore = (int) result;
+				depth = iteration;
+				if (Math.abs(bestScore) > WIN_BOUND || System.nanoTime() > deadline) {
+					break;
+				}
+			}
+		}
+
+		SearchResult result = new SearchResult(bestColumn, bestScore, depth, nodes, System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit()) {
+			event.set(depth, nodes, table.getProbes(), table.getHits(), bestColumn);
+			event.setEvaluationCache(cacheProbes, cacheHits);
+			event.nodesPerSecond = result.getNodesPerSecond();
+			event.commit();
+		}
+		if (cache != null) {
+			cache.addCounts(cacheProbes, cacheHits);
+		}
+		return result;
+	}
+
+	/**Scores a position without searching.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @return the score from the view of the player to move. */
+	public int evaluate(long current, long mask) {
+		return evaluator.evaluate(current, mask);
+	}
+
+	/**Searches every move of the root position.
+	 * @return the best column in the upper and its score in the lower 32 bits. */
+	private long searchRoot(long current, long mask, int depth) {
+		int alpha = -WIN - 1;
+		int bestColumn = -1;
+		long tableEntry = table.probe(rules.key(current, mask));
+		int first = tableEntry != 0 ? TranspositionTable.column(tableEntry) : -1;
+		for (int i = -1; i < order.length; i++) {
+			int column = i < 0 ? first : order[i];
+			if (column < 0 || (i >= 0 && column == first)) {
+				continue;
+			}
+			long move = rules.moveBit(mask, column);
+			if (move == 0) {
+				continue;
+			}
+			int score;
+			if (rules.isLine(current | move)) {
+				score = WIN;
+			} else {
+				score = -negamax(current ^ mask, mask | move, depth - 1, -WIN - 1, -alpha, 1);
+			}
+			if (aborted) {
+				break;
+			}
+			if (score > alpha || bestColumn < 0) {
+				alpha = score;
+				bestColumn = column;
+			}
+		}
+		if (!aborted) {
+			table.store(rules.key(current, mask), alpha, depth, TranspositionTable.EXACT, bestColumn);
+		}
+		return (long) bestColumn << 32 | (alpha & 0xFFFFFFFFL);
+	}
+
+	/**Searches a position, the player before has not won.
+	 * @param current the stones of the player to move.
+	 * @param mask    all stones.
+	 * @param depth   the remaining depth.
+	 * @param alpha   the lower bound.
+	 * @param beta    the upper bound.
+	 * @param ply     the number of stones played since the root.
+	 * @return the score from the view of the player to move. */
+	private int negamax(long current, long mask, int depth, int alpha, int beta, int ply) {
+		if ((++nodes & (CLOCK_INTERVAL - 1)) == 0 && iteration > 1 && (System.nanoTime() > deadline || stop.getAsBoolean())) {
+			aborted = true;
+		}
+		if (aborted) {
+			return 0;
+		}
+
+		long playable = rules.playable(mask);
+		if (playable == 0) {
+			return 0;
+		}
+		if ((rules.winningCells(current, mask) & playable) != 0) {
+			return WIN - ply;
+		}
+		// the opponent wins on a playable threat, or on a threat right above the stone played
+		long opponentThreats = rules.winningCells(current ^ mask, mask);
+		long forced = opponentThreats & playable;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) {
+				return -(WIN - ply - 1);
+			}
+			playable = forced;
+		}
+		playable &= ~(opponentThreats >>> 1);
+		if (playable == 0) {
+			return -(WIN - ply - 1);
+		}
+		if (depth <= 0) {
+			return evaluator.evaluate(current, mask);
+		}
+
+		long key = rules.key(current, mask);
+		long entry = table.probe(key);
+		int first = -1;
+		if (entry != 0) {
+			first = TranspositionTable.column(entry);
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta)
+						|| (bound == TranspositionTable.UPPER && score <= alpha)) {
+					return score;
+				}
+			}
+		}
+		if (depth == 1) {
+			return scoreLeaves(current, mask, playable, beta);
+		}
+
+		int originalAlpha = alpha;
+		int best = -WIN - 1;
+		int bestColumn = -1;
+		for (int i = -1; i < order.length; i++) {
+			int column = i < 0 ? first : order[i];
+			if (column < 0 || (i >= 0 && column == first)) {
+				continue;
+			}
+			long move = playable & rules.getColumnMask(column);
+			if (move == 0) {
+				continue;
+			}
+			int score = -negamax(current ^ mask, mask | move, depth - 1, -beta, -alpha, ply + 1);
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				bestColumn = column;
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+		int bound = best <= originalAlpha ? TranspositionTable.UPPER
+				: best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+		table.store(key, toTable(best, ply), depth, bound, bestColumn);
+		return best;
+	}
+
+	/**Scores the children of a position one move before the horizon. None of them is won, that was checked by
+	 * {@link #negamax}. The children are collected in the usual order and scored as one batch, which stops at the
+	 * first child causing a cutoff. The result only depends on the position, so it is looked up in the cache first:
+	 * an exact score is used as it is, a lower bound if it causes the cutoff again.
+	 * @return the score from the view of the player to move. */
+	private int scoreLeaves(long current, long mask, long playable, int beta) {
+		long key = 0;
+		if (cache != null) {
+			key = rules.canonicalKey(current, mask);
+			cacheProbes++;
+			long entry = cache.probe(key);
+			if (entry != 0) {
+				int score = EvaluationCache.score(entry);
+				if (!EvaluationCache.isLowerBound(entry) || score >= beta) {
+					cacheHits++;
+					return score;
+				}
+			}
+		}
+
+		long opponent = current ^ mask;
+		int count = 0;
+		for (int column : order) {
+			long move = playable & rules.getColumnMask(column);
+			if (move != 0) {
+				leafCurrent[count] = opponent;
+				leafMask[count] = mask | move;
+				count++;
+			}
+		}
+		int best = -WIN - 1;
+		if (batchLeaves) {
+			count = evaluator.evaluate(leafCurrent, leafMask, count, leafScores, -beta);
+			for (int i = 0; i < count; i++) {
+				best = Math.max(best, -leafScores[i]);
+			}
+		} else {
+			int scored = 0;
+			while (scored < count && best < beta) {
+				best = Math.max(best, -evaluator.evaluate(leafCurrent[scored], leafMask[scored]));
+				scored++;
+			}
+			count = scored;
+		}
+		nodes += count;
+		if (cache != null) {
+			cache.store(key, best, best >= beta);
+		}
+		return best;
+	}
+
+	/** Makes a win score relative to the position, so it can be stored for other paths to the position. */
+	private static int toTable(int score, int ply) {
+		return score > WIN_BOUND ? score + ply : score < -WIN_BOUND ? score - ply : score;
+	}
+
+	/** Makes a stored win score relative to the root again. */
+	private static int fromTable(int score, int ply) {
+		return score > WIN_BOUND ? score - ply : score < -WIN_BOUND ? score + ply : score;
+	}
+
+}
@@ -0,0 +1,74 @@
+package ai;
+
+/**
+ * The outcome of a {@link Search} or a {@link MonteCarloSearch}: the column to play and what the search found out
+ * about it.
+ */
+public final class SearchResult {
+	/** The best column, -1 if there was no move. */
+	private final int column;
+	/** The score of the column from the view of the player to move. */
+	private final int score;
+	/** The depth of the last completed iteration. */
+	private final int depth;
+	/** Number of positions visited. */
+	private final long nodes;
+	/** Duration of the search. */
+	private final long nanos;
+
+	/**Creates a result.
+	 * @param column the best column, -1 if there was no move.
+	 * @param score  the score of the column.
+	 * @param depth  the depth of the last completed iteration.
+	 * @param nodes  number of positions visited.
+	 * @param nanos  duration of the search. */
+	SearchResult(int column, int score, int depth, long nodes, long nanos) {
+		this.column = column;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.nanos = nanos;
+	}
+
+	/** @return the best column, -1 if there was no move. */
+	public int getColumn() {
+		return column;
+	}
+
+	/** @return the score of the column from the view of the player to move. */
+	public int getScore() {
+		return score;
+	}
+
+	/** @return true if the score is a forced win or loss rather than an estimate. */
+	public boolean isDecided() {
+		return Math.abs(score) > Search.WIN_BOUND;
+	}
+
+	/** @return the depth of the last completed iteration. */
+	public int getDepth() {
+		return depth;
+	}
+
+	/** @return number of positions visited. */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/** @return duration of the search in nanoseconds. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/** @return positions visited per second. */
+	public long getNodesPerSecond() {
+		return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return "column " + column + " score " + score + " depth " + depth + " nodes " + nodes + " nps "
+				+ getNodesPerSecond();
+	}
+
+}
@@ -0,0 +1,459 @@
+package ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import data.BoardGeometry;
+
+/**
+ * Remembers the results of searched positions, so positions reached by different move orders are searched once.
+ * Every slot holds the key and one packed entry in two longs of one buffer, a new result replaces the old one of its
+ * slot. The buffer is off the heap in the layout of a snapshot file, so a table is saved by writing it out and
+ * loaded by mapping the file copy-on-write: nothing is read before the search touches it, and the file is never
+ * written through the mapping.
+ * A snapshot is a pair of files, the given name with ".0" and ".1" appended. Saving writes the one the table is not
+ * mapped from and gives it the next generation, loading maps the newest valid one. So the mapped file is never
+ * replaced, which Windows would refuse.
+ * The slots are checked in blocks of 64 KiB against CRC32Cs in the header, each block the first time the search
+ * touches it; a damaged block is emptied. This keeps the start free of a pass over the whole file.
+ * Not thread-safe, every {@link Search} has its own table.
+ */
+final class TranspositionTable {
+	/** The score is exact. */
+	static final int EXACT = 0;
+	/** The score is a lower bound, the search failed high. */
+	static final int LOWER = 1;
+	/** The score is an upper bound, the search failed low. */
+	static final int UPPER = 2;
+	/** Set in every stored entry, so an entry is never 0. */
+	private static final long VALID = 1L << 63;
+	/** First long of a snapshot, "FTWTABLE". Written in the native byte order, so a file of another order does not
+	 * match. */
+	private static final long SNAPSHOT_MAGIC = 0x4654575441424C45L;
+	/** Version of the snapshot layout, of the keys and of the entries. Raise it when the {@link Evaluator} scores
+	 * change as well, so old scores are not used. */
+	private static final int SNAPSHOT_VERSION = 3;
+	/** Bytes of the header before the checksums: magic, version, columns, rows, connect, bits, generation, zeros. */
+	private static final int HEADER_FIELDS = 64;
+	/** Longs of a checked block of slots as a power of two, 64 KiB. */
+	private static final int BLOCK_BITS = 13;
+
+	/** The header and the slots: the key and the packed entry of every slot, the entry 0 if empty. */
+	private final ByteBuffer buffer;
+	/** The slots of the buffer as longs. */
+	private final LongBuffer slots;
+	/** Shift turning a hash into a slot index. */
+	private final int shift;
+	/** The blocks not checked against their checksum yet, null if there are none. */
+	private boolean[] unchecked;
+	/** Number of blocks not checked yet. */
+	private int uncheckedCount;
+	/** Number of blocks emptied because they did not match their checksum. */
+	private int damagedBlocks;
+	/** The file of the pair the table is mapped from, 0 or 1, -1 if it is not mapped. */
+	private int mappedFile = -1;
+	/** Set if a result was stored since the table was created, loaded or saved. */
+	private boolean changed;
+	/** Number of lookups. */
+	private long probes;
+	/** Number of lookups which found the position. */
+	private long hits;
+
+	/**Creates an empty table.
+	 * @param bits the table has 2^bits slots. */
+	TranspositionTable(int bits) {
+		this(ByteBuffer.allocateDirect((int) fileSize(bits)), bits);
+	}
+
+	/**Creates a table on a buffer.
+	 * @param buffer the header and the slots.
+	 * @param bits   the table has 2^bits slots. */
+	private TranspositionTable(ByteBuffer buffer, int bits) {
+		this.buffer = buffer.order(ByteOrder.nativeOrder());
+		slots = this.buffer.position(headerSize(bits)).slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+		this.buffer.position(0);
+		shift = 64 - bits;
+	}
+
+	/** @return number of checked blocks of a table with 2^bits slots. */
+	private static int blocks(int bits) {
+		return Math.max(1, 2 << bits >> BLOCK_BITS);
+	}
+
+	/** @return bytes of the header of a table with 2^bits slots: the fields and the checksums, a multiple of 64. */
+	private static int headerSize(int bits) {
+		return HEADER_FIELDS + (Integer.BYTES * blocks(bits) + 63) / 64 * 64;
+	}
+
+	/** @return bytes of a snapshot of a table with 2^bits slots. */
+	private static long fileSize(int bits) {
+		return headerSize(bits) + (2L * Long.BYTES << bits);
+	}
+
+	/**@param file the name of the snapshot.
+	 * @param index 0 or 1.
+	 * @return one file of the pair. */
+	private static Path pairFile(Path file, int index) {
+		return file.resolveSibling(file.getFileName() + "." + index);
+	}
+
+	/**Reads the header of a file of a snapshot.
+	 * @return the generation, -1 if there is no such file or it was made for another geometry, size or version. */
+	private static long generation(Path file, BoardGeometry geometry, int bits) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS).order(ByteOrder.nativeOrder());
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					return -1;
+				}
+			}
+			header.flip();
+			if (channel.size() != fileSize(bits) || header.getLong() != SNAPSHOT_MAGIC
+					|| header.getInt() != SNAPSHOT_VERSION || header.getInt() != geometry.getColumns()
+					|| header.getInt() != geometry.getRows() || header.getInt() != geometry.getConnect()
+					|| header.getInt() != bits) {
+				return -1;
+			}
+			return header.getLong();
+		} catch (NoSuchFileException e) {
+			return -1;
+		}
+	}
+
+	/**Maps the newest snapshot written by {@link #save(Path, BoardGeometry)}. Only the headers are read here, the
+	 * slots when the search touches them.
+	 * @param file     the name of the snapshot.
+	 * @param geometry the geometry the table is for.
+	 * @param bits     the table has 2^bits slots.
+	 * @return the table, null if there is no snapshot or it was made for another geometry, size or version.
+	 * @throws IOException if the snapshot can't be read. */
+	static TranspositionTable load(Path file, BoardGeometry geometry, int bits) throws IOException {
+		long first = generation(pairFile(file, 0), geometry, bits);
+		long second = generation(pairFile(file, 1), geometry, bits);
+		if (first < 0 && second < 0) {
+			return null;
+		}
+		int index = second > first ? 1 : 0;
+		// a copy-on-write mapping needs a writable channel, the file is not written all the same
+		try (FileChannel channel = FileChannel.open(pairFile(file, index), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			TranspositionTable table = new TranspositionTable(
+					channel.map(FileChannel.MapMode.PRIVATE, 0, fileSize(bits)), bits);
+			table.mappedFile = index;
+			table.unchecked = new boolean[blocks(bits)];
+			Arrays.fill(table.unchecked, true);
+			table.uncheckedCount = table.unchecked.length;
+			return table;
+		}
+	}
+
+	/**Writes the table to the file of the snapshot it is not mapped from, as the newest generation. A temporary file
+	 * is moved over it, so a game starting meanwhile never maps half a file. The blocks not checked yet are checked
+	 * first, so a damaged one is not saved with a new checksum.
+	 * @param file     the name of the snapshot.
+	 * @param geometry the geometry the table is for.
+	 * @throws IOException if the snapshot can't be written. */
+	void save(Path file, BoardGeometry geometry) throws IOException {
+		int bits = 64 - shift;
+		for (int block = 0; unchecked != null && block < unchecked.length; block++) {
+			if (unchecked[block]) {
+				check(block);
+			}
+		}
+		long first = generation(pairFile(file, 0), geometry, bits);
+		long second = generation(pairFile(file, 1), geometry, bits);
+		int index = mappedFile >= 0 ? 1 - mappedFile : second < first ? 1 : 0;
+		int blocks = blocks(bits);
+		buffer.clear();
+		buffer.putLong(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(geometry.getColumns())
+				.putInt(geometry.getRows()).putInt(geometry.getConnect()).putInt(bits)
+				.putLong(Math.max(first, second) + 1);
+		for (int block = 0; block < blocks; block++) {
+			buffer.putInt(HEADER_FIELDS + Integer.BYTES * block, checksum(block));
+		}
+		buffer.clear();
+		Path target = pairFile(file, index);
+		Path temporary = Files.createTempFile(target.toAbsolutePath().getParent(), "table", ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer bytes = buffer.duplicate();
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+			}
+			try {
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		changed = false;
+	}
+
+	/** @return the CRC32C of a block of the slots. */
+	private int checksum(int block) {
+		int longs = Math.min(1 << BLOCK_BITS, slots.capacity());
+		int start = headerSize(64 - shift) + block * longs * Long.BYTES;
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.duplicate().limit(start + longs * Long.BYTES).position(start));
+		return (int) crc.getValue();
+	}
+
+	/** Checks a block of a loaded table against its checksum and empties it if it does not match. */
+	private void check(int block) {
+		unchecked[block] = false;
+		if (--uncheckedCount == 0) {
+			unchecked = null;
+		}
+		if (checksum(block) != buffer.getInt(HEADER_FIELDS + Integer.BYTES * block)) {
+			damagedBlocks++;
+			int longs = Math.min(1 << BLOCK_BITS, slots.capacity());
+			for (int i = block * longs; i < (block + 1) * longs; i++) {
+				slots.put(i, 0);
+			}
+		}
+	}
+
+	/** @return number of blocks of a loaded snapshot emptied because they did not match their checksum, so far. */
+	int getDamagedBlocks() {
+		return damagedBlocks;
+	}
+
+	/** @return true if a result was stored since the table was created, loaded or saved. */
+	boolean isChanged() {
+		return changed;
+	}
+
+	/**Looks up a position.
+	 * @param key the key of the position.
+	 * @return the entry or 0 if the position is not stored. */
+	long probe(long key) {
+		probes++;
+		int slot = slot(key);
+		if (unchecked != null && unchecked[slot >>> BLOCK_BITS]) {
+			check(slot >>> BLOCK_BITS);
+		}
+		long entry = slots.get(slot + 1);
+		if (entry != 0 && slots.get(slot) == key) {
+			hits++;
+			return entry;
+		}
+		return 0;
+	}
+
+	/**Stores the result of a search.
+	 * @param key    the key of the position.
+	 * @param score  the score.
+	 * @param depth  the remaining depth searched.
+	 * @param bound  EXACT, LOWER or UPPER.
+	 * @param column the best column or -1. */
+	void store(long key, int score, int depth, int bound, int column) {
+		int slot = slot(key);
+		if (unchecked != null && unchecked[slot >>> BLOCK_BITS]) {
+			check(slot >>> BLOCK_BITS);
+		}
+		slots.put(slot, key);
+		slots.put(slot + 1,
+				VALID | (long) (column + 1) << 42 | (long) bound << 40 | (long) depth << 32 | (score & 0xFFFFFFFFL));
+		changed = true;
+	}
+
+	/** @param entry an entry.
+	 * @return the score. */
+	static int score(long entry) {
+		return (int) entry;
+	}
+
+	/** @param entry an entry.
+	 * @return the remaining depth searched. */
+	static int depth(long entry) {
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	/** @param entry an entry.
+	 * @return EXACT, LOWER or UPPER. */
+	static int bound(long entry) {
+		return (int) (entry >>> 40) & 0x3;
+	}
+
+	/** @param entry an entry.
+	 * @return the best column or -1. */
+	static int column(long entry) {
+		return ((int) (entry >>> 42) & 0xFF) - 1;
+	}
+
+	/** @return number of lookups since the last {@link #resetCounters()}. */
+	long getProbes() {
+		return probes;
+	}
+
+	/** @return number of lookups which found the position since the last {@link #resetCounters()}. */
+	long getHits() {
+		return hits;
+	}
+
+	/** Sets the lookup counters to 0. */
+	void resetCounters() {
+		probes = 0;
+		hits = 0;
+	}
+
+	/**Checks the table from the command line and exits with 1 if a check fails.
+	 * @param args not used.
+	 * @throws IOException if the snapshots in the temporary directory can't be written or read. */
+	public static void main(String[] args) throws IOException {
+		boolean correct = checkEntries();
+		Path directory = Files.createTempDirectory("table");
+		try {
+			correct &= checkSnapshots(directory.resolve("table"));
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+	/**Checks that every field of an entry comes back as it was stored, over the whole range a search uses, that a
+	 * newer result replaces the older one and that another key of the same slot is not found.
+	 * @return true if the checks passed. */
+	private static boolean checkEntries() {
+		TranspositionTable table = new TranspositionTable(10);
+		int[] scores = { 0, 1, -1, Search.WIN, -Search.WIN, Search.WIN_BOUND + 1, Integer.MIN_VALUE,
+				Integer.MAX_VALUE };
+		int[] depths = { 0, 1, 42, 255 };
+		int[] bounds = { EXACT, LOWER, UPPER };
+		int[] columns = { -1, 0, 6, 254 };
+		int wrong = 0;
+		int stored = 0;
+		long key = 0;
+		for (int score : scores) {
+			for (int depth : depths) {
+				for (int bound : bounds) {
+					for (int column : columns) {
+						key += 0x1234567;
+						table.store(key, score, depth, bound, column);
+						long entry = table.probe(key);
+						if (entry == 0 || score(entry) != score || depth(entry) != depth || bound(entry) != bound
+								|| column(entry) != column) {
+							wrong++;
+						}
+						stored++;
+					}
+				}
+			}
+		}
+		System.out.printf("entries: %d combinations of score, depth, bound and column, %d wrong  %s%n", stored, wrong,
+				wrong == 0 ? "ok" : "WRONG");
+
+		long other = key + 1;
+		while (table.slot(other) != table.slot(key)) {
+			other++;
+		}
+		boolean replaced = table.probe(other) == 0;
+		table.store(other, 7, 3, LOWER, 2);
+		replaced &= table.probe(key) == 0 && score(table.probe(other)) == 7;
+		System.out.printf("slots: another key of the slot is not found and replaces the entry  %s%n",
+				replaced ? "ok" : "WRONG");
+		return wrong == 0 && replaced;
+	}
+
+	/**Checks that a saved table loads with the same entries, that the saves alternate between the two files of the
+	 * pair with a rising generation, that a damaged block is emptied alone and that a snapshot of another geometry
+	 * or size is not loaded.
+	 * @param file the name of the snapshot, in an empty directory.
+	 * @return true if the checks passed.
+	 * @throws IOException if the snapshot can't be written or read. */
+	private static boolean checkSnapshots(Path file) throws IOException {
+		int bits = 14;
+		BoardGeometry geometry = BoardGeometry.STANDARD;
+		Random random = new Random(4);
+		long[] keys = new long[6000];
+		TranspositionTable table = new TranspositionTable(bits);
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextLong();
+			table.store(keys[i], random.nextInt(2001) - 1000, random.nextInt(43), random.nextInt(3),
+					random.nextInt(8) - 1);
+		}
+		table.save(file, geometry);
+		TranspositionTable loaded = load(file, geometry, bits);
+		boolean same = loaded != null && !loaded.isChanged() && loaded.mappedFile == 0 && sameEntries(table, loaded,
+				keys, -1);
+		System.out.printf("round trip: %d entries saved and loaded  %s%n", keys.length, same ? "ok" : "WRONG");
+
+		loaded.store(keys[0] + 1, 5, 9, EXACT, 3);
+		table.store(keys[0] + 1, 5, 9, EXACT, 3);
+		loaded.save(file, geometry);
+		TranspositionTable newer = load(file, geometry, bits);
+		boolean alternated = Files.exists(pairFile(file, 1)) && generation(pairFile(file, 0), geometry, bits) == 0
+				&& generation(pairFile(file, 1), geometry, bits) == 1 && newer != null && newer.mappedFile == 1
+				&& sameEntries(table, newer, keys, -1) && score(newer.probe(keys[0] + 1)) == 5;
+		newer.save(file, geometry);
+		alternated &= generation(pairFile(file, 0), geometry, bits) == 2 && load(file, geometry, bits).mappedFile == 0;
+		System.out.printf("generations: saves alternate between .0 and .1, the newest is loaded  %s%n",
+				alternated ? "ok" : "WRONG");
+
+		int damaged = 2;
+		long offset = headerSize(bits) + ((long) damaged << BLOCK_BITS) * Long.BYTES + 1000;
+		try (FileChannel channel = FileChannel.open(pairFile(file, 0), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer bytes = ByteBuffer.allocate(1);
+			channel.read(bytes, offset);
+			bytes.put(0, (byte) ~bytes.get(0));
+			channel.write(bytes.clear(), offset);
+		}
+		TranspositionTable repaired = load(file, geometry, bits);
+		boolean emptied = repaired != null && sameEntries(table, repaired, keys, damaged)
+				&& repaired.getDamagedBlocks() == 1;
+		System.out.printf("damage: a changed byte empties its block, the others are kept  %s%n",
+				emptied ? "ok" : "WRONG");
+
+		boolean other = load(file, new BoardGeometry(8, 7, 4), bits) == null && load(file, geometry, bits + 1) == null
+				&& load(file.resolveSibling("missing"), geometry, bits) == null;
+		System.out.printf("mismatch: another geometry, size or name loads nothing  %s%n", other ? "ok" : "WRONG");
+		return same && alternated && emptied && other;
+	}
+
+	/**@param expected the table the entries were stored in.
+	 * @param actual   a table loaded from a snapshot.
+	 * @param keys     the keys stored.
+	 * @param damaged  a block which must be empty in the loaded table, -1 if none.
+	 * @return true if the loaded table finds the same entries as the table they were stored in. */
+	private static boolean sameEntries(TranspositionTable expected, TranspositionTable actual, long[] keys,
+			int damaged) {
+		for (long key : keys) {
+			boolean empty = expected.slot(key) >>> BLOCK_BITS == damaged;
+			if (actual.probe(key) != (empty ? 0 : expected.probe(key))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Spreads the key over the slots with a multiplicative hash.
+	 * @return the index of the key in the slots, the entry follows. */
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift) << 1;
+	}
+
+}
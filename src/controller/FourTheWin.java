@@ -4,21 +4,69 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
+import ai.Bitboards;
+import ai.MonteCarloSearch;
+import ai.Search;
+import ai.SearchResult;
+import data.BoardGeometry;
 import data.DataModell;
+import lighthouse.ILighthouseInputListener;
+import metrics.LatencyTracer;
+import views.AnimationClock;
 import views.ComputerView;
 import views.LighthouseView;
+import views.SpriteAtlas;
 
 /** This is basically the Controller Class.
  * @author Mindxxxd. 19.02.2020. */
-public class FourTheWin implements KeyListener {
+public class FourTheWin implements KeyListener, ILighthouseInputListener {
+	/** Key code of the left arrow on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_LEFT = 37;
+	/** Key code of the right arrow on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_RIGHT = 39;
+	/** Key code of the A key on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_A = 65;
+	/** Key code of the D key on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_D = 68;
+	/** Key code of the space bar on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_SPACE = 32;
+	/** Key code of the C key on the lighthouse keyboard. */
+	private static final int LIGHTHOUSE_C = 67;
+	/** Depth of the last iteration of the computer player. */
+	private static final int COMPUTER_DEPTH = 42;
+	/** Time the computer player thinks about a move. */
+	private static final long COMPUTER_MILLIS = 1000;
+	/** Time the computer player gets to finish its move and save its transposition table when the window closes. */
+	private static final long EXIT_MILLIS = 5000;
+	/** Random games the Monte-Carlo player plays per move, more make it stronger. */
+	private static final int MONTE_CARLO_PLAYOUTS = 100_000;
+	/** Nodes of the tree of the Monte-Carlo player. */
+	private static final int MONTE_CARLO_NODES = 1 << 18;
+	/** The decoded graphics of the last start, so the next start does not decode them again. */
+	private static final Path SPRITE_CACHE = Paths.get(System.getProperty("java.io.tmpdir"), "FourTheWin-sprites.raw");
+	/** Minutes between two snapshots of the transposition table of the computer player. */
+	private static final long TABLE_SNAPSHOT_MINUTES = 5;
 
 	/** Main method to start game.
-	 * @param args */
+	 * @param args optional columns, rows and stones to connect, e.g. "8 7 4". The classic board without. */
 	public static void main(String[] args) {
-		new FourTheWin();
+		if (args.length >= 3) {
+			new FourTheWin(new BoardGeometry(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+					Integer.parseInt(args[2])));
+		} else {
+			new FourTheWin();
+		}
 	}
 
 	/** The DataModell itself to store stuff. */
@@ -27,56 +75,225 @@ public class FourTheWin implements KeyListener {
 	private ComputerView computerView;
 	/** The Lighthosue View. */
 	private LighthouseView lighthouseView;
+	/** The clock animating both Views. */
+	private AnimationClock animationClock;
 	/** The Computer Frame. */
 	private JFrame gameFrame;
+	/** The computer player, null if the board is too large for it. */
+	private Search search;
+	/** The snapshot of the transposition table of the computer player, one for every geometry. */
+	private Path tableSnapshot;
+	/** The Monte-Carlo computer player, null if the board is too large for it. */
+	private MonteCarloSearch monteCarlo;
+	/** Runs the computer player, so the Views keep going while it thinks, and saves its transposition table between
+	 * two moves. */
+	private final ScheduledExecutorService computer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "FourTheWin-computer");
+		thread.setDaemon(true);
+		return thread;
+	});
 
-	/** Constructor opens the Window, initializes everything. Starts game. */
+	/** Constructor opens the Window, initializes everything. Starts game on the classic board. */
 	public FourTheWin() {
+		this(BoardGeometry.STANDARD);
+	}
+
+	/** Constructor opens the Window, initializes everything. Starts game.
+	 * @param geometry the size of the board and the winning rule. */
+	public FourTheWin(BoardGeometry geometry) {
+		// Loading the graphics in the background, while the Frame opens and the Lighthouse connects.
+		CompletableFuture<SpriteAtlas> sprites = SpriteAtlas.load(SPRITE_CACHE);
+
 		// Creating the Frame.
 		gameFrame = new JFrame("Four The Win: THE GAME");
 		gameFrame.setSize(500, 500);
-		gameFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		gameFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		gameFrame.setVisible(true);
 		gameFrame.addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
+				animationClock.close();
 				lighthouseView.close();
+				new Thread(FourTheWin.this::stopComputer, "FourTheWin-exit").start();
 			}
 		});
 
 		// Initializing the data Modell.
-		dataModell = new DataModell(); // CODE update constructor. Till now its a placeholder.
+		dataModell = new DataModell(geometry);
+		if (geometry.fitsInLong()) {
+			Bitboards rules = new Bitboards(geometry);
+			search = new Search(rules);
+			tableSnapshot = Paths.get(System.getProperty("java.io.tmpdir"), "FourTheWin-table-" + geometry.getColumns()
+					+ "x" + geometry.getRows() + "-" + geometry.getConnect() + ".raw");
+			try {
+				search.loadTable(tableSnapshot);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			computer.scheduleWithFixedDelay(this::saveTable, TABLE_SNAPSHOT_MINUTES, TABLE_SNAPSHOT_MINUTES,
+					TimeUnit.MINUTES);
+			monteCarlo = new MonteCarloSearch(rules, MONTE_CARLO_NODES, Runtime.getRuntime().availableProcessors());
+		}
+
+		// Initializing the animation clock. It has to see changes before the Views.
+		animationClock = new AnimationClock(dataModell);
+		dataModell.addView(animationClock);
 
 		// Initializing the Computer View.
-		computerView = new ComputerView(dataModell, gameFrame);
+		computerView = new ComputerView(dataModell, gameFrame, animationClock, sprites);
 		dataModell.addView(computerView);
+		animationClock.addTarget(computerView);
 
 		// Initializing the Lighthouse View.
-		lighthouseView = new LighthouseView(dataModell);
+		lighthouseView = new LighthouseView(dataModell, animationClock);
 		dataModell.addView(lighthouseView);
+		animationClock.addTarget(lighthouseView);
+		lighthouseView.addInputListener(this);
 
 		// ActionListeners.
 		gameFrame.addKeyListener(this);
 	}
 
-	/** Key pressed handling. Working with (ws)ad!
+	/** Key pressed handling. Working with (ws)ad! Space starts a new game once the game is finished, c lets the
+	 * computer make the move, m lets the Monte-Carlo player make it, t prints the latencies measured so far.
 	 * @param e The key Event. */
 	@Override
 	public void keyPressed(KeyEvent e) {
 		switch (e.getKeyChar()) {
 		case ' ':
-			dataModell.makeTurn();
+			LatencyTracer.input();
+			drop();
 			break;
 		case 'a':
+			LatencyTracer.input();
 			dataModell.movePlayStone(-1);
 			break;
 		case 'd':
+			LatencyTracer.input();
+			dataModell.movePlayStone(1);
+			break;
+		case 'c':
+			computerMove();
+			break;
+		case 'm':
+			monteCarloMove();
+			break;
+		case 't':
+			LatencyTracer.dump(System.out);
+			break;
+
+		default:
+			break;
+		}
+
+	}
+
+	/** Key handling for the lighthouse keyboard, works like the computer keyboard. Arrows work as well. */
+	@Override
+	public void keyboardEvent(int source, int button, boolean down) {
+		if (!down) {
+			return;
+		}
+		switch (button) {
+		case LIGHTHOUSE_SPACE:
+			LatencyTracer.input();
+			drop();
+			break;
+		case LIGHTHOUSE_A:
+		case LIGHTHOUSE_LEFT:
+			LatencyTracer.input();
+			dataModell.movePlayStone(-1);
+			break;
+		case LIGHTHOUSE_D:
+		case LIGHTHOUSE_RIGHT:
+			LatencyTracer.input();
 			dataModell.movePlayStone(1);
 			break;
+		case LIGHTHOUSE_C:
+			computerMove();
+			break;
 
 		default:
 			break;
 		}
+	}
+
+	/** Nothing happens on controller input. */
+	@Override
+	public void controllerEvent(int source, int button, boolean down) {
+		// Nothing Happens
+
+	}
+
+	/** Drops the play stone, or starts a new game once the game is finished. */
+	private void drop() {
+		if (dataModell.isFinished()) {
+			dataModell.reset();
+		} else {
+			dataModell.makeTurn();
+		}
+	}
+
+	/** Lets the computer player search a move for the current player in the background. The stone is dropped on
+	 * the event dispatch thread, unless somebody moved in the meantime. */
+	private void computerMove() {
+		if (search == null || dataModell.isFinished()) {
+			return;
+		}
+		int moves = dataModell.getMoves();
+		computer.execute(() -> {
+			SearchResult result = search.search(dataModell, COMPUTER_DEPTH, COMPUTER_MILLIS);
+			SwingUtilities.invokeLater(() -> playColumn(result.getColumn(), moves));
+		});
+	}
+
+	/** Lets the Monte-Carlo player search a move for the current player in the background, like
+	 * {@link #computerMove()}. */
+	private void monteCarloMove() {
+		if (monteCarlo == null || dataModell.isFinished()) {
+			return;
+		}
+		int moves = dataModell.getMoves();
+		computer.execute(() -> {
+			SearchResult result = monteCarlo.search(dataModell, MONTE_CARLO_PLAYOUTS, COMPUTER_MILLIS);
+			SwingUtilities.invokeLater(() -> playColumn(result.getColumn(), moves));
+		});
+	}
+
+	/** Saves the transposition table of the computer player, on the thread it searches on. */
+	private void saveTable() {
+		try {
+			search.saveTable(tableSnapshot);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Lets the computer player finish its move and save its transposition table, then stops its thread and exits.
+	 * Runs on a thread of its own, so the window closes right away. The search is not stopped, it takes
+	 * {@link #COMPUTER_MILLIS} at most; if the move and the save take longer than {@link #EXIT_MILLIS} the table is
+	 * not saved. */
+	private void stopComputer() {
+		if (search != null) {
+			computer.execute(this::saveTable);
+		}
+		computer.shutdown();
+		try {
+			computer.awaitTermination(EXIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		computer.shutdownNow();
+		if (monteCarlo != null) {
+			monteCarlo.close();
+		}
+		System.exit(0);
+	}
 
+	/** Drops the stone in a column, unless the game finished or somebody moved in the meantime.
+	 * @param column the column, -1 for none.
+	 * @param moves  the number of stones the move was searched for. */
+	private void playColumn(int column, int moves) {
+		dataModell.makeTurn(column, moves);
 	}
 
 	/** Nothing happens when key is typed. */
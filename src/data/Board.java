@@ -0,0 +1,250 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The stones on a board of any {@link BoardGeometry}. Use {@link #create(BoardGeometry)} to get the fastest
+ * implementation: a {@link LongBoard} if the bitboards fit into one long, a {@link MultiWordBoard} otherwise. Dropping
+ * a stone and checking for a win never allocate and take the same time for every move.
+ */
+public abstract class Board {
+	/** The size of the board and the winning rule. */
+	protected final BoardGeometry geometry;
+	/** Number of stones in every column. */
+	private final int[] heights;
+	/** Number of stones on the board. */
+	private int moves;
+
+	/**Creates an empty board.
+	 * @param geometry the size of the board. */
+	protected Board(BoardGeometry geometry) {
+		this.geometry = geometry;
+		heights = new int[geometry.getColumns()];
+	}
+
+	/**Creates an empty board with the best implementation for the geometry.
+	 * @param geometry the size of the board.
+	 * @return the board. */
+	public static Board create(BoardGeometry geometry) {
+		return geometry.fitsInLong() ? new LongBoard(geometry) : new MultiWordBoard(geometry);
+	}
+
+	/** @return the size of the board and the winning rule. */
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+
+	/** @param column a column.
+	 * @return number of stones in the column, also the row the next stone lands in. */
+	public int getHeight(int column) {
+		return heights[column];
+	}
+
+	/** @return number of stones on the board. */
+	public int getMoves() {
+		return moves;
+	}
+
+	/** @return true if there is no space left. */
+	public boolean isFull() {
+		return moves == geometry.getCells();
+	}
+
+	/** @param column a column.
+	 * @return true if the column has space for another stone. */
+	public boolean canDrop(int column) {
+		return heights[column] < geometry.getRows();
+	}
+
+	/**Drops a stone into a column. The column must have space, see {@link #canDrop(int)}.
+	 * @param player the owner of the stone, YELLOW or RED.
+	 * @param column the column.
+	 * @return the row the stone landed in. */
+	public int drop(Player player, int column) {
+		int row = heights[column]++;
+		moves++;
+		set(player, geometry.bit(column, row));
+		return row;
+	}
+
+	/** Returns the stone at the given cell.
+	 * @param column the column, 0 is left.
+	 * @param row    the row, 0 is the bottom row.
+	 * @return the owner of the stone or NOONE if the cell is empty. */
+	public Player getStone(int column, int row) {
+		int bit = geometry.bit(column, row);
+		if (test(Player.YELLOW, bit)) {
+			return Player.YELLOW;
+		} else if (test(Player.RED, bit)) {
+			return Player.RED;
+		}
+		return Player.NOONE;
+	}
+
+	/**Checks if a stone completes a line. Only lines through the stone are found, which are all lines if the check is
+	 * done after every drop.
+	 * @param player the owner of the stone.
+	 * @param column the column of the stone.
+	 * @param row    the row of the stone.
+	 * @return true if the player has enough stones in a row. */
+	public abstract boolean isWin(Player player, int column, int row);
+
+	/**Adds the bits of all stones in winning lines through a stone to a set. Only called once a game is won.
+	 * @param player the owner of the stone.
+	 * @param column the column of the stone.
+	 * @param row    the row of the stone.
+	 * @param line   the set to add the bits of the stones to, see {@link BoardGeometry#bit(int, int)}. */
+	public abstract void addWinningStones(Player player, int column, int row, BitSet line);
+
+	/** Removes all stones. */
+	public void clear() {
+		clearStones();
+		for (int i = 0; i < heights.length; i++) {
+			heights[i] = 0;
+		}
+		moves = 0;
+	}
+
+	/**Makes this board a copy of another one without allocating.
+	 * @param other a board with the same geometry. */
+	public void copyFrom(Board other) {
+		if (!geometry.equals(other.geometry) || getClass() != other.getClass()) {
+			throw new IllegalArgumentException("Boards of " + other.geometry + " can't be copied to " + geometry);
+		}
+		copyStones(other);
+		System.arraycopy(other.heights, 0, heights, 0, heights.length);
+		moves = other.moves;
+	}
+
+	/** @return a new board with the same stones. */
+	public Board copy() {
+		Board copy = create(geometry);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	/**Tells if a player has a stone on a bit.
+	 * @param player YELLOW or RED.
+	 * @param bit    the bit of the cell.
+	 * @return true if there is a stone. */
+	protected abstract boolean test(Player player, int bit);
+
+	/**Puts a stone on a bit.
+	 * @param player YELLOW or RED.
+	 * @param bit    the bit of the cell. */
+	protected abstract void set(Player player, int bit);
+
+	/** Removes all stones, the heights are reset by {@link #clear()}. */
+	protected abstract void clearStones();
+
+	/**Copies the stones of a board of the same class and geometry.
+	 * @param other the board to copy. */
+	protected abstract void copyStones(Board other);
+
+	/** Boards are equal if they have the same geometry and the same stones. */
+	@Override
+	public abstract boolean equals(Object obj);
+
+	@Override
+	public abstract int hashCode();
+
+	/**Checks the win detection from the command line. Plays random games on geometries which fit into a long and
+	 * geometries which don't, and compares {@link #isWin} and {@link #addWinningStones} of every implementation
+	 * which fits the geometry with a plain walk over the cells after every stone. Exits with 1 on a difference.
+	 * @param args optionally the number of games per geometry, 2000 if not given. */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		BoardGeometry[] geometries = { BoardGeometry.STANDARD, new BoardGeometry(4, 4, 3), new BoardGeometry(8, 7, 5),
+				new BoardGeometry(9, 7, 4), new BoardGeometry(12, 10, 5), new BoardGeometry(20, 20, 6) };
+		Random random = new Random(1);
+		boolean correct = true;
+		for (BoardGeometry geometry : geometries) {
+			List<Board> boards = new ArrayList<>();
+			boards.add(new MultiWordBoard(geometry));
+			if (geometry.fitsInLong()) {
+				boards.add(new LongBoard(geometry));
+			}
+			long drops = 0;
+			long wins = 0;
+			long wrong = 0;
+			for (int game = 0; game < games; game++) {
+				boards.forEach(Board::clear);
+				Board reference = boards.get(0);
+				Player player = Player.YELLOW;
+				boolean won = false;
+				while (!won && !reference.isFull()) {
+					int column = random.nextInt(geometry.getColumns());
+					if (!reference.canDrop(column)) {
+						continue;
+					}
+					int row = 0;
+					for (Board board : boards) {
+						row = board.drop(player, column);
+					}
+					drops++;
+					BitSet expected = new BitSet();
+					won = walkLines(reference, player, column, row, expected);
+					for (Board board : boards) {
+						BitSet line = new BitSet();
+						if (won) {
+							board.addWinningStones(player, column, row, line);
+						}
+						if (board.isWin(player, column, row) != won || !line.equals(expected)) {
+							wrong++;
+						}
+					}
+					player = player == Player.YELLOW ? Player.RED : Player.YELLOW;
+				}
+				if (won) {
+					wins++;
+				}
+			}
+			System.out.printf("%-18s %-25s %9d stones %7d wins  %s%n", geometry,
+					geometry.fitsInLong() ? "MultiWordBoard, LongBoard" : "MultiWordBoard", drops, wins,
+					wrong == 0 ? "ok" : wrong + " WRONG");
+			correct &= wrong == 0;
+		}
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+	/**Finds the lines through a stone by walking over the cells, for {@link #main}.
+	 * @param board  the board.
+	 * @param player the owner of the stone.
+	 * @param column the column of the stone.
+	 * @param row    the row of the stone.
+	 * @param line   receives the bits of the stones of all lines through the stone.
+	 * @return true if there is a line. */
+	private static boolean walkLines(Board board, Player player, int column, int row, BitSet line) {
+		BoardGeometry geometry = board.getGeometry();
+		int[][] steps = { { 0, 1 }, { 1, 0 }, { 1, -1 }, { 1, 1 } };
+		for (int[] step : steps) {
+			int backward = 0;
+			while (owns(board, player, column - (backward + 1) * step[0], row - (backward + 1) * step[1])) {
+				backward++;
+			}
+			int forward = 0;
+			while (owns(board, player, column + (forward + 1) * step[0], row + (forward + 1) * step[1])) {
+				forward++;
+			}
+			if (1 + backward + forward >= geometry.getConnect()) {
+				for (int i = -backward; i <= forward; i++) {
+					line.set(geometry.bit(column + i * step[0], row + i * step[1]));
+				}
+			}
+		}
+		return !line.isEmpty();
+	}
+
+	/** @return true if the cell is on the board and the player has a stone on it. */
+	private static boolean owns(Board board, Player player, int column, int row) {
+		BoardGeometry geometry = board.getGeometry();
+		return column >= 0 && column < geometry.getColumns() && row >= 0 && row < geometry.getRows()
+				&& board.getStone(column, row) == player;
+	}
+
+}
@@ -0,0 +1,133 @@
+package data;
+
+/**
+ * The size of the board and the number of stones in a row needed to win. In the bitboards every column uses
+ * rows + 1 bits (the top bit stays empty as a sentinel) starting with the bottom row.
+ */
+public final class BoardGeometry {
+	/** The classic board, 7 columns, 6 rows, four in a row. */
+	public static final BoardGeometry STANDARD = new BoardGeometry(7, 6, 4);
+
+	/** Number of columns. */
+	private final int columns;
+	/** Number of rows. */
+	private final int rows;
+	/** Stones in a row needed to win. */
+	private final int connect;
+	/** Bit shifts to the next stone for every direction a winning line fits in. */
+	private final int[] directions;
+
+	/**Creates a geometry.
+	 * @param columns number of columns.
+	 * @param rows    number of rows.
+	 * @param connect stones in a row needed to win.
+	 * @throws IllegalArgumentException if a value is too small or no line of connect stones fits on the board. */
+	public BoardGeometry(int columns, int rows, int connect) {
+		if (columns < 1 || rows < 1 || connect < 2) {
+			throw new IllegalArgumentException("The board needs a column, a row and at least 2 stones to connect.");
+		}
+		if (connect > Math.max(columns, rows)) {
+			throw new IllegalArgumentException("No line of " + connect + " fits on a " + columns + "x" + rows + " board.");
+		}
+		this.columns = columns;
+		this.rows = rows;
+		this.connect = connect;
+
+		// vertical, horizontal and both diagonals, only where a winning line fits
+		int[] shifts = new int[4];
+		int count = 0;
+		if (connect <= rows) {
+			shifts[count++] = 1;
+		}
+		if (connect <= columns) {
+			shifts[count++] = rows + 1;
+		}
+		if (connect <= rows && connect <= columns) {
+			shifts[count++] = rows;
+			shifts[count++] = rows + 2;
+		}
+		directions = new int[count];
+		System.arraycopy(shifts, 0, directions, 0, count);
+	}
+
+	/** @return number of columns. */
+	public int getColumns() {
+		return columns;
+	}
+
+	/** @return number of rows. */
+	public int getRows() {
+		return rows;
+	}
+
+	/** @return stones in a row needed to win. */
+	public int getConnect() {
+		return connect;
+	}
+
+	/** @return number of cells. */
+	public int getCells() {
+		return columns * rows;
+	}
+
+	/** @return bits needed for a bitboard including the sentinel bits. */
+	public int getBits() {
+		return columns * (rows + 1);
+	}
+
+	/** @return true if a bitboard fits into one long. */
+	public boolean fitsInLong() {
+		return getBits() <= Long.SIZE;
+	}
+
+	/** Returns the bit of a cell in the bitboards.
+	 * @param column the column, 0 is left.
+	 * @param row    the row, 0 is the bottom row.
+	 * @return the bit index. */
+	public int bit(int column, int row) {
+		return column * (rows + 1) + row;
+	}
+
+	/** @param bit a bit index of the bitboards.
+	 * @return the column of the cell. */
+	public int column(int bit) {
+		return bit / (rows + 1);
+	}
+
+	/** @param bit a bit index of the bitboards.
+	 * @return the row of the cell. */
+	public int row(int bit) {
+		return bit % (rows + 1);
+	}
+
+	/** @return the bit shifts to the next stone of every direction a winning line fits in. Must not be changed. */
+	int[] directions() {
+		return directions;
+	}
+
+	/** @return a copy of the bit shifts to the next stone of every direction a winning line fits in: 1 (vertical),
+	 * rows + 1 (horizontal), rows and rows + 2 (diagonals). */
+	public int[] getDirections() {
+		return directions.clone();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof BoardGeometry)) {
+			return false;
+		}
+		BoardGeometry other = (BoardGeometry) obj;
+		return columns == other.columns && rows == other.rows && connect == other.connect;
+	}
+
+	@Override
+	public int hashCode() {
+		return (columns * 31 + rows) * 31 + connect;
+	}
+
+	@Override
+	public String toString() {
+		return columns + "x" + rows + " connect " + connect;
+	}
+
+}
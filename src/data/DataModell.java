@@ -1,38 +1,228 @@
 package data;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import metrics.LatencyTracer;
+import metrics.TurnEvent;
 import views.View;
 
 /**
+ * The game state. The stones are kept in a {@link Board} of the chosen {@link BoardGeometry}.
  * @author Mindxxxd.
  * 19.02.2020.
- * 
+ *
  */
 public class DataModell {
-	//This is a placeholder class.
-	
+	/** The size of the board and the winning rule. */
+	private final BoardGeometry geometry;
+	/** The Views to update on every change. */
+	private final List<View> views = new CopyOnWriteArrayList<>();
+	/** The stones. */
+	private final Board board;
+	/** Bits of the stones forming the winning lines, empty while nobody has won. */
+	private final BitSet winningStones = new BitSet();
+	/** The column the play stone is hovering over. */
+	private int playStoneColumn;
+	/** The player to make the next turn. */
+	private Player currentPlayer = Player.YELLOW;
+	/** The winner, NOONE while the game is running or on a draw. */
+	private Player winner = Player.NOONE;
+	/** Column of the last stone dropped, -1 if there is none. */
+	private int lastColumn = -1;
+	/** Row of the last stone dropped, -1 if there is none. */
+	private int lastRow = -1;
+
+	/** Creates a game on the classic 7x6 board. */
+	public DataModell() {
+		this(BoardGeometry.STANDARD);
+	}
+
+	/** Creates a game on a board of any size.
+	 * @param geometry the size of the board and the winning rule. */
+	public DataModell(BoardGeometry geometry) {
+		this.geometry = geometry;
+		board = Board.create(geometry);
+		playStoneColumn = geometry.getColumns() / 2;
+	}
+
+	/** Adds a View which gets updated on every change. Views are updated in the order they were added.
+	 * @param view the View to add. */
 	public void addView(View view) {
-		//placeholder
+		views.add(view);
 	}
-	
+
+	/** Drops the play stone of the current player in its column.
+	 * @return false if the game is finished or the column is full. */
 	public boolean makeTurn() {
-		//Placeholder
+		return drop(-1, -1);
+	}
+
+	/**Moves the play stone to a column and drops it there.
+	 * @param column the column.
+	 * @return false if the game is finished, the column is full or does not exist. */
+	public boolean makeTurn(int column) {
+		return makeTurn(column, -1);
+	}
+
+	/**Moves the play stone to a column and drops it there, if nobody has moved since a given number of stones. The
+	 * check and the move are one step, so a move searched in the background is not dropped for the wrong player.
+	 * @param column        the column.
+	 * @param expectedMoves the number of stones the move was made for, -1 for any.
+	 * @return false if the game is finished, somebody moved meanwhile, the column is full or does not exist. */
+	public boolean makeTurn(int column, int expectedMoves) {
+		if (column < 0 || column >= geometry.getColumns()) {
+			return false;
+		}
+		return drop(column, expectedMoves);
+	}
+
+	/**Drops the stone of the current player.
+	 * @param column        the column, -1 for the column of the play stone.
+	 * @param expectedMoves the number of stones the move was made for, -1 for any.
+	 * @return false if the game is finished, somebody moved meanwhile or the column is full. */
+	private boolean drop(int column, int expectedMoves) {
+		TurnEvent event = new TurnEvent();
+		event.begin();
+		synchronized (this) {
+			if (isFinished() || (expectedMoves >= 0 && board.getMoves() != expectedMoves)) {
+				return false;
+			}
+			if (column >= 0) {
+				playStoneColumn = column;
+			}
+			if (!board.canDrop(playStoneColumn)) {
+				return false;
+			}
+			lastColumn = playStoneColumn;
+			lastRow = board.drop(currentPlayer, lastColumn);
+			if (board.isWin(currentPlayer, lastColumn, lastRow)) {
+				winner = currentPlayer;
+				board.addWinningStones(currentPlayer, lastColumn, lastRow, winningStones);
+			}
+			if (event.shouldCommit()) {
+				event.player = currentPlayer.name();
+				event.column = lastColumn;
+				event.row = lastRow;
+				event.moves = board.getMoves();
+				event.winning = winner != Player.NOONE;
+				event.commit();
+			}
+			currentPlayer = currentPlayer == Player.YELLOW ? Player.RED : Player.YELLOW;
+		}
+		LatencyTracer.mark(LatencyTracer.Stage.MODEL);
+		if (isFinished()) {
+			gameFinished(winner);
+		} else {
+			updateViews();
+		}
 		return true;
 	}
-	
-	/**COMMENT
+
+	/**Moves the play stone one column.
 	 * @param direction if -1, try left, if 1 try right, if 0, do nnothing.
-	 * @return
+	 * @return false if the play stone could not be moved.
 	 */
 	public boolean movePlayStone(int direction) {
-		//Placeholder
+		synchronized (this) {
+			int column = playStoneColumn + Integer.signum(direction);
+			if (isFinished() || column < 0 || column >= geometry.getColumns() || column == playStoneColumn) {
+				return false;
+			}
+			playStoneColumn = column;
+		}
+		LatencyTracer.mark(LatencyTracer.Stage.MODEL);
+		updateViews();
 		return true;
 	}
-	/**COMMENT
-	 * 
+
+	/** Clears the board and starts a new game with yellow. */
+	public void reset() {
+		synchronized (this) {
+			board.clear();
+			winningStones.clear();
+			playStoneColumn = geometry.getColumns() / 2;
+			currentPlayer = Player.YELLOW;
+			winner = Player.NOONE;
+			lastColumn = -1;
+			lastRow = -1;
+		}
+		LatencyTracer.mark(LatencyTracer.Stage.MODEL);
+		updateViews();
+	}
+
+	/** @return the size of the board and the winning rule. */
+	public BoardGeometry getGeometry() {
+		return geometry;
+	}
+
+	/** Returns the stone at the given cell.
+	 * @param column the column, 0 is left.
+	 * @param row    the row, 0 is the bottom row.
+	 * @return the owner of the stone or NOONE if the cell is empty. */
+	public synchronized Player getStone(int column, int row) {
+		return board.getStone(column, row);
+	}
+
+	/** Copies the stones into a board without allocating.
+	 * @param target a board of the same geometry, see {@link Board#create(BoardGeometry)}. */
+	public synchronized void copyBoard(Board target) {
+		target.copyFrom(board);
+	}
+
+	/** @return the bits of the stones forming the winning lines, empty if nobody has won. */
+	public synchronized BitSet getWinningStones() {
+		return (BitSet) winningStones.clone();
+	}
+
+	/** @return the column the play stone is hovering over. */
+	public synchronized int getPlayStoneColumn() {
+		return playStoneColumn;
+	}
+
+	/** @return the player to make the next turn. */
+	public synchronized Player getCurrentPlayer() {
+		return currentPlayer;
+	}
+
+	/** @return the winner or NOONE. */
+	public synchronized Player getWinner() {
+		return winner;
+	}
+
+	/** @return number of stones on the board. */
+	public synchronized int getMoves() {
+		return board.getMoves();
+	}
+
+	/** @return the column of the last dropped stone or -1. */
+	public synchronized int getLastColumn() {
+		return lastColumn;
+	}
+
+	/** @return the row of the last dropped stone or -1. */
+	public synchronized int getLastRow() {
+		return lastRow;
+	}
+
+	/** @return true if somebody won or the board is full. */
+	public synchronized boolean isFinished() {
+		return winner != Player.NOONE || board.isFull();
+	}
+
+	/** Notifies all Views about a change. */
+	private void updateViews() {
+		for (View view : views) {
+			view.update();
+		}
+	}
+
+	/**Called once the game is over, updates the Views.
+	 * @param winner the winner or NOONE on a draw.
 	 */
 	private void gameFinished(Player winner) {
-		//CODE Update Views 
-
+		updateViews();
 	}
 
 }
@@ -0,0 +1,119 @@
+package data;
+
+import java.util.BitSet;
+
+/**
+ * A board whose bitboards fit into one long per player. Wins are found with shifts over the whole bitboard, one
+ * sequence of shifts per direction, so the check takes the same few instructions for every move.
+ */
+public final class LongBoard extends Board {
+	/** Stones of the yellow player. */
+	private long yellowStones;
+	/** Stones of the red player. */
+	private long redStones;
+
+	/**Creates an empty board.
+	 * @param geometry the size of the board, has to fit into a long. */
+	public LongBoard(BoardGeometry geometry) {
+		super(geometry);
+		if (!geometry.fitsInLong()) {
+			throw new IllegalArgumentException(geometry + " does not fit into a long.");
+		}
+	}
+
+	/**Returns the bitboard of one player.
+	 * @param player YELLOW or RED.
+	 * @return the stones of the player, see {@link BoardGeometry#bit(int, int)} for the layout. */
+	public long getStones(Player player) {
+		return player == Player.YELLOW ? yellowStones : player == Player.RED ? redStones : 0;
+	}
+
+	@Override
+	public boolean isWin(Player player, int column, int row) {
+		long stones = getStones(player);
+		for (int shift : geometry.directions()) {
+			if (lineStarts(stones, shift, geometry.getConnect()) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void addWinningStones(Player player, int column, int row, BitSet line) {
+		long stones = getStones(player);
+		int connect = geometry.getConnect();
+		long winning = 0;
+		for (int shift : geometry.directions()) {
+			long starts = lineStarts(stones, shift, connect);
+			for (int i = 0; i < connect; i++) {
+				winning |= starts << (i * shift);
+			}
+		}
+		while (winning != 0) {
+			line.set(Long.numberOfTrailingZeros(winning));
+			winning &= winning - 1;
+		}
+	}
+
+	/**Finds the first stone of every line of connect stones in one direction. Runs are doubled in length with each
+	 * shift, so only about log2(connect) shifts are needed.
+	 * @param stones  the bitboard of one player.
+	 * @param shift   the bit shift to the next stone of a line.
+	 * @param connect the length of a line.
+	 * @return the bits where a line starts. */
+	public static long lineStarts(long stones, int shift, int connect) {
+		long runs = stones;
+		int length = 1;
+		while (length * 2 <= connect) {
+			runs &= runs >>> (length * shift);
+			length *= 2;
+		}
+		if (length < connect) {
+			runs &= runs >>> ((connect - length) * shift);
+		}
+		return runs;
+	}
+
+	@Override
+	protected boolean test(Player player, int bit) {
+		return (getStones(player) & (1L << bit)) != 0;
+	}
+
+	@Override
+	protected void set(Player player, int bit) {
+		if (player == Player.YELLOW) {
+			yellowStones |= 1L << bit;
+		} else {
+			redStones |= 1L << bit;
+		}
+	}
+
+	@Override
+	protected void clearStones() {
+		yellowStones = 0;
+		redStones = 0;
+	}
+
+	@Override
+	protected void copyStones(Board other) {
+		LongBoard board = (LongBoard) other;
+		yellowStones = board.yellowStones;
+		redStones = board.redStones;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LongBoard)) {
+			return false;
+		}
+		LongBoard other = (LongBoard) obj;
+		return yellowStones == other.yellowStones && redStones == other.redStones && geometry.equals(other.geometry);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(yellowStones * 31 + redStones);
+	}
+
+}
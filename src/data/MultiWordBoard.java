@@ -0,0 +1,113 @@
+package data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A board whose bitboards need more than one long per player. Wins are found by walking from the new stone in both
+ * ways of every direction, which needs at most connect - 1 steps each.
+ */
+public final class MultiWordBoard extends Board {
+	/** Stones of the yellow player. */
+	private final long[] yellowStones;
+	/** Stones of the red player. */
+	private final long[] redStones;
+
+	/**Creates an empty board.
+	 * @param geometry the size of the board. */
+	public MultiWordBoard(BoardGeometry geometry) {
+		super(geometry);
+		int words = (geometry.getBits() + Long.SIZE - 1) / Long.SIZE;
+		yellowStones = new long[words];
+		redStones = new long[words];
+	}
+
+	@Override
+	public boolean isWin(Player player, int column, int row) {
+		long[] stones = words(player);
+		int bit = geometry.bit(column, row);
+		int connect = geometry.getConnect();
+		for (int shift : geometry.directions()) {
+			if (1 + run(stones, bit, shift) + run(stones, bit, -shift) >= connect) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void addWinningStones(Player player, int column, int row, BitSet line) {
+		long[] stones = words(player);
+		int bit = geometry.bit(column, row);
+		for (int shift : geometry.directions()) {
+			int forward = run(stones, bit, shift);
+			int backward = run(stones, bit, -shift);
+			if (1 + forward + backward >= geometry.getConnect()) {
+				for (int i = -backward; i <= forward; i++) {
+					line.set(bit + i * shift);
+				}
+			}
+		}
+	}
+
+	/**Counts the stones next to a stone in one way of a direction, up to connect - 1. The empty sentinel bits stop
+	 * runs at the top and bottom of the columns.
+	 * @param stones the bitboard of one player.
+	 * @param bit    the bit of the stone to start from.
+	 * @param shift  the bit shift to the next stone, negative to walk backwards.
+	 * @return number of stones in a row, not counting the starting stone. */
+	private int run(long[] stones, int bit, int shift) {
+		int bits = geometry.getBits();
+		int limit = geometry.getConnect() - 1;
+		int count = 0;
+		for (int next = bit + shift; count < limit && next >= 0 && next < bits
+				&& (stones[next >>> 6] & (1L << next)) != 0; next += shift) {
+			count++;
+		}
+		return count;
+	}
+
+	/** @return the bitboard of a player. */
+	private long[] words(Player player) {
+		return player == Player.YELLOW ? yellowStones : redStones;
+	}
+
+	@Override
+	protected boolean test(Player player, int bit) {
+		return (words(player)[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	@Override
+	protected void set(Player player, int bit) {
+		words(player)[bit >>> 6] |= 1L << bit;
+	}
+
+	@Override
+	protected void clearStones() {
+		Arrays.fill(yellowStones, 0);
+		Arrays.fill(redStones, 0);
+	}
+
+	@Override
+	protected void copyStones(Board other) {
+		MultiWordBoard board = (MultiWordBoard) other;
+		System.arraycopy(board.yellowStones, 0, yellowStones, 0, yellowStones.length);
+		System.arraycopy(board.redStones, 0, redStones, 0, redStones.length);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MultiWordBoard)) {
+			return false;
+		}
+		MultiWordBoard other = (MultiWordBoard) obj;
+		return geometry.equals(other.geometry) && Arrays.equals(yellowStones, other.yellowStones)
+				&& Arrays.equals(redStones, other.redStones);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(yellowStones) * 31 + Arrays.hashCode(redStones);
+	}
+
+}
@@ -1,6 +1,7 @@
 package lighthouse;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
@@ -10,21 +11,40 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import metrics.FrameEncodeEvent;
+import metrics.FrameSendEvent;
+import metrics.LatencyTracer;
 
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.api.BatchMode;
 import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.UpgradeException;
 import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.eclipse.jetty.websocket.common.WebSocketSession;
+import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
 import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageStringCodingException;
@@ -37,8 +57,15 @@ import org.msgpack.value.impl.ImmutableStringValueImpl;
  * This class wraps the network communication with the lighthouse in a simple
  * interface. The network connection is configured and connected upon object creation but
  * the username and token need to be manually set. Afterwards data can be sent to the lighthouse.
+ * While open, every LighthouseDisplay is registered as an MXBean, see LighthouseDisplayMXBean.
+ * A connection which can't be made or is lost is made again, waiting longer after every attempt.
  */
-public class LighthouseDisplay {
+public class LighthouseDisplay implements LighthouseDisplayMXBean {
+	
+	/**
+	 * The web-socket address of the lighthouse.
+	 */
+	public static final String DEFAULT_URI = "wss://lighthouse.uni-kiel.de/websocket";
 	
 	/**
 	 * A map which stores the LighthouseDisplay for each URL.
@@ -56,7 +83,7 @@ public class LighthouseDisplay {
 	 *             if there is an error constructing a web-socket-client
 	 */
 	public static LighthouseDisplay getDisplay() throws IOException, Exception {
-		return getDisplay("wss://lighthouse.uni-kiel.de/websocket", false, 0);
+		return getDisplay(DEFAULT_URI, false, 0);
 	}
 	
 	/**
@@ -79,19 +106,51 @@ public class LighthouseDisplay {
 	 *             if there is an error constructing a web-socket-client
 	 */
 	public static LighthouseDisplay getDisplay(String destinationURI, boolean allowSelfSigned, int debugOutput) throws InvalidAttributeValueException, IOException, Exception  {
+		return getDisplay(destinationURI, allowSelfSigned, debugOutput, false);
+	}
+	
+	/**
+	 * Like 'getDisplay(String, boolean, int)', but offers the server to compress the connection with the
+	 * permessage-deflate extension if compress is true. The compression keeps its context between
+	 * messages, so the username and token repeated in every request cost almost nothing. If the server
+	 * declines the extension the data is sent uncompressed, if it refuses the handshake because of the
+	 * offer the display connects again without it. Has no effect on an existing LighthouseDisplay.
+	 * 
+	 * @param destinationURI the URI to connect to
+	 * @param allowSelfSigned true if self-signed certificates should be allowed
+	 * @param debugOutput sets the debug-level for this connection
+	 * @param compress true if permessage-deflate should be offered to the server
+	 * 
+	 * @return A LighthouseDisplay for the given URI
+	 * 
+	 * @throws URISyntaxException
+	 *             if destUri contains errors
+	 * @throws IOException
+	 *             if there is an error while connecting or constructing the
+	 *             web-socket
+	 * @throws Exception
+	 *             if there is an error constructing a web-socket-client
+	 */
+	public static LighthouseDisplay getDisplay(String destinationURI, boolean allowSelfSigned, int debugOutput, boolean compress) throws InvalidAttributeValueException, IOException, Exception  {
 		LighthouseDisplay display = instances.get(destinationURI);
 		if (display != null) return display;
 		
 		display = new LighthouseDisplay(debugOutput);
+		display.compressionRequested = compress;
 		display.connect(destinationURI, allowSelfSigned);
 		
 		instances.put(destinationURI, display);
+		display.registerMBean();
 		return display;
 	}
 	
 	
 
-	private boolean closed = false;
+	// time given to the first attempt to connect again, doubled for every further attempt
+	private static final long RECONNECT_MIN_MILLIS = 1000;
+	private static final long RECONNECT_MAX_MILLIS = 30000;
+
+	private volatile boolean closed = false;
 	private String destinationURI;
 	private String username;
 	private String token;
@@ -100,6 +159,19 @@ public class LighthouseDisplay {
 	private int debugOutput;
 	private Set<ILighthouseInputListener> observer = new HashSet<>();
 	private boolean keyInputEnabled = false;
+	private ObjectName mbeanName;
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder framesDropped = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder writeFailures = new LongAdder();
+	private final LongAdder connects = new LongAdder();
+	private final LongAdder wireBytesOut = new LongAdder();
+	private volatile boolean compressionRequested = false;
+	private volatile boolean compressed = false;
+	private final AtomicBoolean reconnecting = new AtomicBoolean();
+	// only used by the attempts to connect again, which run one after another
+	private long reconnectMillis;
+	private Future<Session> reconnectAttempt;
 
 	/**
 	 * Creates a new LighthouseDisplay and
@@ -135,15 +207,147 @@ public class LighthouseDisplay {
 
 		URI targetUri = new URI(destUri);
 		destinationURI = destUri;
-		ClientUpgradeRequest upgrade = new ClientUpgradeRequest();
 
 		client.start();
-		client.connect(handler, targetUri, upgrade);
+		client.connect(handler, targetUri, newUpgradeRequest());
 		if (debugOutput > 0) {
 			System.out.printf("LighthouseDisplay, Connecting to: %s\n", targetUri);
 		}
 	}
 
+	/**
+	 * Creates the upgrade request, offering permessage-deflate if compression was requested.
+	 * No parameters are sent, so both sides keep their compression context between messages.
+	 */
+	private ClientUpgradeRequest newUpgradeRequest() {
+		ClientUpgradeRequest upgrade = new ClientUpgradeRequest();
+		if (compressionRequested) {
+			upgrade.addExtensions("permessage-deflate");
+		}
+		return upgrade;
+	}
+
+	/**
+	 * Connects again without offering compression, for servers which refuse the handshake
+	 * because of the offer.
+	 */
+	private void connectWithoutCompression() {
+		compressionRequested = false;
+		System.err.println("LighthouseDisplay, handshake with permessage-deflate failed, connecting without compression");
+		try {
+			client.connect(handler, new URI(destinationURI), newUpgradeRequest());
+		} catch (IOException | URISyntaxException e) {
+			e.printStackTrace();
+		}
+	}
+
+
+	/**
+	 * Starts connecting again after the connection was lost or could not be made, unless the
+	 * display was closed or is connecting again already. The attempts are made on the scheduler
+	 * of the client.
+	 */
+	private void reconnect() {
+		if (closed || !reconnecting.compareAndSet(false, true)) return;
+		reconnectMillis = RECONNECT_MIN_MILLIS;
+		scheduleReconnect(RECONNECT_MIN_MILLIS);
+	}
+
+	/**
+	 * Connects again unless the connection is open. An attempt which has not connected by the
+	 * next one is cancelled, every attempt gets twice the time of the one before, up to
+	 * RECONNECT_MAX_MILLIS.
+	 */
+	private void attemptReconnect() {
+		if (closed || handler.isConnected()) {
+			reconnecting.set(false);
+			// the connection may have been lost again before the flag was cleared
+			if (!closed && !handler.isConnected()) reconnect();
+			return;
+		}
+		if (reconnectAttempt != null) {
+			reconnectAttempt.cancel(true);
+		}
+		if (debugOutput > 0) {
+			System.out.printf("LighthouseDisplay, Connecting again to: %s\n", destinationURI);
+		}
+		try {
+			reconnectAttempt = client.connect(handler, new URI(destinationURI), newUpgradeRequest());
+		} catch (IOException | URISyntaxException e) {
+			System.err.println("LighthouseDisplay, ERROR: connecting again failed: " + e);
+		}
+		long millis = reconnectMillis;
+		reconnectMillis = Math.min(2 * millis, RECONNECT_MAX_MILLIS);
+		scheduleReconnect(millis);
+	}
+
+	private void scheduleReconnect(long millis) {
+		WebSocketClient current = client;
+		try {
+			if (current != null) {
+				current.getScheduler().schedule(this::attemptReconnect, millis, TimeUnit.MILLISECONDS);
+				return;
+			}
+		} catch (RejectedExecutionException e) {
+			// the client was stopped by close()
+		}
+		reconnecting.set(false);
+	}
+
+	/**
+	 * Registers this display in the platform MBean server. Failing to register is reported
+	 * but does not stop the display from working.
+	 */
+	private void registerMBean() {
+		try {
+			mbeanName = new ObjectName("lighthouse:type=LighthouseDisplay,uri=" + ObjectName.quote(destinationURI));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+		} catch (JMException e) {
+			System.err.println("LighthouseDisplay, ERROR: registering MBean failed");
+			e.printStackTrace();
+			mbeanName = null;
+		}
+	}
+
+	@Override
+	public String getDestinationURI() {
+		return destinationURI;
+	}
+
+	@Override
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	@Override
+	public long getFramesDropped() {
+		return framesDropped.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public long getWireBytesOut() {
+		return wireBytesOut.sum();
+	}
+
+	@Override
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	@Override
+	public long getReconnects() {
+		return Math.max(0, connects.sum() - 1);
+	}
+
+	@Override
+	public long getWriteFailures() {
+		return writeFailures.sum();
+	}
 
 	/**
 	 * setter for the configured username. The username may be change during a connection.
@@ -244,6 +448,51 @@ public class LighthouseDisplay {
 		handler.send(data, 0, data.length);
 	}
 
+	/**
+	 * Encodes an image as a lighthouse request without sending it. The request can be sent
+	 * later with 'sendEncodedImage' and contains the username and token set at the time of encoding.
+	 *
+	 * @param data
+	 *            The image data, see 'sendImage'
+	 * @return the encoded request
+	 * @throws IllegalStateException
+	 *             if the username or token wasn't set.
+	 * @throws IllegalArgumentException
+	 *             if the image-data is not 1176 Bytes long.
+	 * @throws IOException
+	 *             if some error occurs during encoding of the data.
+	 */
+	public byte[] encodeImage(byte[] data) throws IllegalStateException, IllegalArgumentException, IOException {
+		if (username == null) {
+			throw new IllegalStateException("The Username must be set in the LightouseDisplay to be able to send images.");
+		}
+		if (token == null) {
+			throw new IllegalStateException("The Token must be set in the LightouseDisplay to be able to send images.");
+		}
+		if (data.length != 1176) {
+			throw new IllegalArgumentException("The image data must be exactly 1176 Bytes long (not "+data.length+" Bytes)");
+		}
+		return handler.encodeAhead(data, 0, data.length);
+	}
+
+	/**
+	 * Sends an image encoded by 'encodeImage' to the lighthouse server.
+	 * The array must not be changed afterwards.
+	 *
+	 * @param packet
+	 *            The encoded request
+	 * @throws IllegalStateException
+	 *             if the connection was Closed by calling 'close()'.
+	 * @throws IOException
+	 *             if some error occurs during sending of the data.
+	 */
+	public void sendEncodedImage(byte[] packet) throws IllegalStateException, IOException {
+		if (closed) {
+			throw new IllegalStateException("The Connection was already Closed.");
+		}
+		handler.sendPacket(packet);
+	}
+
 	/**
 	 * returns if there is currently a connection open note: connection is
 	 * established asynchronous so this value might be false after a call of
@@ -251,6 +500,7 @@ public class LighthouseDisplay {
 	 * 
 	 * @return if the connection is open
 	 */
+	@Override
 	public boolean isConnected() {
 		return handler.isConnected();
 	}
@@ -262,6 +512,14 @@ public class LighthouseDisplay {
 	public void close() {
 		closed = true;
 		instances.remove(destinationURI);
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+			mbeanName = null;
+		}
 		handler.close();
 		try {
 			client.stop();
@@ -295,6 +553,11 @@ public class LighthouseDisplay {
 		private Object sendSynchronizer = new Object();
 		private boolean dataSentSinceLastCheck = false;
 		private boolean keyDataRequested = false;
+		private boolean keepAliveStarted = false;
+		// reused for every image, frames are sent up to 30 times a second
+		private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+		// encodes the requests of 'encodeImage', which may be many at once, so sends never wait for them
+		private final MessageBufferPacker aheadPacker = MessagePack.newDefaultBufferPacker();
 
 		private LighthouseDisplayHandler(LighthouseDisplay parent, int debug) {
 			this.parent = parent;
@@ -314,6 +577,34 @@ public class LighthouseDisplay {
 		 *             on errors while transmitting the data
 		 */
 		public void send(byte[] data, int offset, int length) throws IOException {
+			sendPacket(encode(packer, data, offset, length));
+		}
+
+		/**
+		 * like 'encode', but with a packer of its own, for requests encoded ahead of sending them
+		 */
+		public byte[] encodeAhead(byte[] data, int offset, int length) throws IOException {
+			return encode(aheadPacker, data, offset, length);
+		}
+
+		/**
+		 * this method encodes the given data as a lighthouse request
+		 * 
+		 * @param data
+		 *            the data to encode
+		 * @param offset
+		 *            the offset to start in the data
+		 * @param length
+		 *            the length to encode
+		 * @return the request
+		 * @throws IOException
+		 *             on errors while encoding the data
+		 */
+		public byte[] encode(byte[] data, int offset, int length) throws IOException {
+			return encode(packer, data, offset, length);
+		}
+
+		private byte[] encode(MessageBufferPacker packer, byte[] data, int offset, int length) throws IOException {
 			// Lighthouse request (as JSON/Type mix):
 			// {
 			// "VERB" => String // (GET, PUT, STREAM)
@@ -323,57 +614,95 @@ public class LighthouseDisplay {
 			// "PAYL" => *
 			// "REID" => Int // Request-ID
 			// }
-			MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
-			packer.packMapHeader(6);
-			{
-				packer.packString("REID");
-				packer.packInt(0);
+			FrameEncodeEvent event = new FrameEncodeEvent();
+			event.begin();
+			byte[] packet;
+			synchronized (packer) {
+				packer.clear();
+				packer.packMapHeader(6);
+				{
+					packer.packString("REID");
+					packer.packInt(0);
 
-				packer.packString("VERB");
-				packer.packString("PUT");
+					packer.packString("VERB");
+					packer.packString("PUT");
 
-				packer.packString("PATH");
-				packer.packArrayHeader(3);
-				{
-					packer.packString("user");
-					packer.packString(parent.getUsername());
-					packer.packString("model");
-				}
+					packer.packString("PATH");
+					packer.packArrayHeader(3);
+					{
+						packer.packString("user");
+						packer.packString(parent.getUsername());
+						packer.packString("model");
+					}
 
-				packer.packString("AUTH");
-				packer.packMapHeader(2);
-				{
-					packer.packString("USER");
-					packer.packString(parent.getUsername());
+					packer.packString("AUTH");
+					packer.packMapHeader(2);
+					{
+						packer.packString("USER");
+						packer.packString(parent.getUsername());
 
-					packer.packString("TOKEN");
-					packer.packString(parent.getToken());
-				}
+						packer.packString("TOKEN");
+						packer.packString(parent.getToken());
+					}
 
-				packer.packString("META");
-				packer.packMapHeader(0);
+					packer.packString("META");
+					packer.packMapHeader(0);
 
-				packer.packString("PAYL");
-				packer.packBinaryHeader(length);
-				packer.addPayload(data, offset, length);
+					packer.packString("PAYL");
+					packer.packBinaryHeader(length);
+					packer.addPayload(data, offset, length);
+				}
+				packet = packer.toByteArray();
 			}
-			
+			if (event.shouldCommit()) {
+				event.bytes = packet.length;
+				event.commit();
+			}
+			return packet;
+		}
+
+		/**
+		 * this method sends an encoded lighthouse request to the server
+		 * 
+		 * @param packet
+		 *            the request, see 'encode'
+		 * @throws IOException
+		 *             on errors while transmitting the data
+		 */
+		public void sendPacket(byte[] packet) throws IOException {
+			FrameSendEvent event = new FrameSendEvent();
+			event.begin();
 			dataSentSinceLastCheck = true;
-			lastPacket = ByteBuffer.wrap(packer.toByteArray());
+			lastPacket = ByteBuffer.wrap(packet);
 			
+			boolean sent = false;
 			synchronized (sendSynchronizer) {
 				if (connected) {
-					endpoint.sendBytes(ByteBuffer.wrap(packer.toByteArray()), new WriteCallback() {
+					endpoint.sendBytes(ByteBuffer.wrap(packet), new WriteCallback() {
 						@Override
-						public void writeSuccess() {}
+						public void writeSuccess() {
+							parent.framesSent.increment();
+							parent.bytesOut.add(packet.length);
+						}
 						@Override
 						public void writeFailed(Throwable err) {
+							parent.writeFailures.increment();
 							System.err.println("LighthouseDisplay, ERROR: sending image failed");
 						}
 					});
-					endpoint.flush();
+					flush(endpoint);
+					LatencyTracer.sent();
+					sent = true;
 				}
 			}
+			if (!sent) {
+				parent.framesDropped.increment();
+			}
+			if (event.shouldCommit()) {
+				event.bytes = packet.length;
+				event.sent = sent;
+				event.commit();
+			}
 		}
 		
 		public void requestKeyData() {
@@ -418,7 +747,7 @@ public class LighthouseDisplay {
 				
 				synchronized (sendSynchronizer) {
 					endpoint.sendBytes(ByteBuffer.wrap(packer.toByteArray()));
-					endpoint.flush();
+					flush(endpoint);
 				}
 			} catch (IOException e) {
 				System.err.println("LighthouseDisplay, ERROR: requesting controller input stream:");
@@ -445,15 +774,53 @@ public class LighthouseDisplay {
 			return connected && session != null && session.isOpen();
 		}
 
+		/**
+		 * Flushes the frames batched by the endpoint. Jetty 9.4 compresses the flush marker into an
+		 * empty message which the server would answer as an invalid request, so compressed
+		 * connections don't batch and are never flushed.
+		 */
+		private void flush(RemoteEndpoint endpoint) throws IOException {
+			if (!parent.compressed) {
+				endpoint.flush();
+			}
+		}
+
+		/**
+		 * Puts a WireCounter between the last extension of the session and the connection, where
+		 * the frames are final. This relies on the Jetty 9.4 implementation classes.
+		 * 
+		 * @return false if the session is not built the expected way
+		 */
+		private boolean countWireBytes(Session session) {
+			if (!(session instanceof WebSocketSession)
+					|| !(((WebSocketSession) session).getOutgoingHandler() instanceof ExtensionStack)) {
+				return false;
+			}
+			ExtensionStack stack = (ExtensionStack) ((WebSocketSession) session).getOutgoingHandler();
+			OutgoingFrames next = stack.getNextOutgoing();
+			if (!(next instanceof AbstractExtension)) {
+				stack.setNextOutgoing(new WireCounter(next));
+				return true;
+			}
+			AbstractExtension last = (AbstractExtension) next;
+			while (last.getNextOutgoing() instanceof AbstractExtension) {
+				last = (AbstractExtension) last.getNextOutgoing();
+			}
+			last.setNextOutgoingFrames(new WireCounter(last.getNextOutgoing()));
+			return true;
+		}
+
 		/**
 		 * event target for the web-socket close event
 		 */
 		@OnWebSocketClose
 		public void onClose(int statusCode, String reason) {
 			connected = false;
+			keyDataRequested = false;
 			if (debug > 0) {
 				System.out.printf("LighthouseDisplay, Connection closed [%d]: %s%n", statusCode, reason);
 			}
+			parent.reconnect();
 		}
 
 		/**
@@ -464,15 +831,37 @@ public class LighthouseDisplay {
 			// save session for usage in communication
 			this.session = session;
 			connected = true;
+			parent.connects.increment();
+			parent.compressed = false;
+			List<ExtensionConfig> extensions = session.getUpgradeResponse().getExtensions();
+			if (extensions != null) {
+				for (ExtensionConfig extension : extensions) {
+					if ("permessage-deflate".equals(extension.getName())) {
+						parent.compressed = true;
+					}
+				}
+			}
+			if (parent.compressionRequested && !parent.compressed) {
+				System.err.println("LighthouseDisplay, server declined permessage-deflate, sending uncompressed");
+			}
+			if (!countWireBytes(session) && debug > 0) {
+				System.out.println("LighthouseDisplay, can't count bytes on the wire for this session");
+			}
 			if (debug > 0) {
 				System.out.printf("LighthouseDisplay, Got connection: %s%n", session);
 			}
 			endpoint = session.getRemote();
+			if (parent.compressed) {
+				// see flush(RemoteEndpoint)
+				endpoint.setBatchMode(BatchMode.OFF);
+			}
 			
 			if (parent.keyInputEnabled) requestKeyData();
 			
 			// create a Thread to re-send images every 2s if no image was sent since the last check
-			// (to prevent the display from turning off by a timeout)
+			// (to prevent the display from turning off by a timeout), once for all connections
+			if (keepAliveStarted) return;
+			keepAliveStarted = true;
 			new Thread() {
 				public void run() {
 					while(true) {
@@ -483,9 +872,15 @@ public class LighthouseDisplay {
 								if (!dataSentSinceLastCheck) {
 									try {
 										RemoteEndpoint endpoint = session.getRemote();
-										endpoint.sendBytes(lastPacket);
-										endpoint.flush();
+										// the compression consumes the buffer, so every resend gets its own view
+										endpoint.sendBytes(lastPacket.duplicate());
+										flush(endpoint);
+										// not caused by an input, only counted to match the responses
+										LatencyTracer.resent();
+										parent.framesSent.increment();
+										parent.bytesOut.add(lastPacket.limit());
 									} catch (IOException e) {
+										parent.writeFailures.increment();
 										e.printStackTrace();
 									}
 								}
@@ -524,6 +919,11 @@ public class LighthouseDisplay {
 			try {
 				Value v = unp.unpackValue();
 				Map<Value,Value> vmap = v.asMapValue().map();
+				Value reidValue = vmap.get(new ImmutableStringValueImpl("REID"));
+				if (reidValue != null && reidValue.asIntegerValue().toInt() != -1) {
+					// every request except the input stream gets exactly one response
+					LatencyTracer.response();
+				}
 				int rnum = vmap.get(new ImmutableStringValueImpl("RNUM")).asIntegerValue().toInt();
 				if (rnum == 200) {
 					int reid = vmap.get(new ImmutableStringValueImpl("REID")).asIntegerValue().toInt();
@@ -586,10 +986,50 @@ public class LighthouseDisplay {
 		 */
 		@OnWebSocketError
 		public void onError(Session session, Throwable error) {
+			if (error instanceof UpgradeException && parent.compressionRequested && parent.connects.sum() == 0) {
+				parent.connectWithoutCompression();
+				return;
+			}
 			System.err.println("LighthouseDisplay, WebSocket-Error:");
 			System.err.println(error);
 			error.printStackTrace(System.err);
 			System.err.println(session);
+			// a connect which failed, the first one or one made again, is retried
+			if (!isConnected()) parent.reconnect();
+		}
+	}
+
+	/**
+	 * Counts the size of the frames written to the connection, after compression and including
+	 * the frame header and the mask of the client.
+	 */
+	private class WireCounter implements OutgoingFrames {
+
+		private final OutgoingFrames next;
+
+		private WireCounter(OutgoingFrames next) {
+			this.next = next;
+		}
+
+		@Override
+		public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode) {
+			int length = frame.getPayloadLength();
+			long size = 2 + 4 + length + (length < 126 ? 0 : length < 65536 ? 2 : 8);
+			next.outgoingFrame(frame, new WriteCallback() {
+				@Override
+				public void writeSuccess() {
+					wireBytesOut.add(size);
+					if (callback != null) {
+						callback.writeSuccess();
+					}
+				}
+				@Override
+				public void writeFailed(Throwable err) {
+					if (callback != null) {
+						callback.writeFailed(err);
+					}
+				}
+			}, batchMode);
 		}
 	}
 
@@ -0,0 +1,54 @@
+package lighthouse;
+
+/**
+ * The management interface of a LighthouseDisplay. Every display is registered in the platform
+ * MBean server as "lighthouse:type=LighthouseDisplay,uri=..." until it is closed.
+ */
+public interface LighthouseDisplayMXBean {
+
+	/**
+	 * @return the URI the display is connected to
+	 */
+	String getDestinationURI();
+
+	/**
+	 * @return if there is currently a connection open
+	 */
+	boolean isConnected();
+
+	/**
+	 * @return number of requests written to the web-socket successfully
+	 */
+	long getFramesSent();
+
+	/**
+	 * @return number of images dropped because there was no connection
+	 */
+	long getFramesDropped();
+
+	/**
+	 * @return number of bytes written to the web-socket successfully (before compression)
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return number of bytes of all web-socket frames written to the connection, after
+	 *         compression and including the frame headers (without TCP and TLS overhead)
+	 */
+	long getWireBytesOut();
+
+	/**
+	 * @return if the server accepted permessage-deflate for the current connection
+	 */
+	boolean isCompressed();
+
+	/**
+	 * @return number of connections established after the first one
+	 */
+	long getReconnects();
+
+	/**
+	 * @return number of requests which could not be written
+	 */
+	long getWriteFailures();
+}
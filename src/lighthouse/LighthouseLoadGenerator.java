@@ -0,0 +1,227 @@
+package lighthouse;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives many LighthouseDisplay clients at once against a LocalLighthouseServer (or any other
+ * lighthouse server) and reports throughput, reconnects and memory per connection.
+ *
+ * Usage: LighthouseLoadGenerator [--deflate] [--latency ms] [--jitter ms] [clients] [seconds] [fps] [uri]
+ * Without an uri a LocalLighthouseServer is started in this process. Halfway through the run the
+ * local server drops all connections; every client has to connect again within RECONNECT_SECONDS,
+ * otherwise the run fails with exit code 1. With --deflate the clients offer permessage-deflate
+ * and the local server accepts it, without it the local server declines it like a server without
+ * compression support. The local server delays every response by the latency plus a random jitter,
+ * 5 and 10 ms if not given.
+ */
+public class LighthouseLoadGenerator {
+
+	/** Bytes of an image. */
+	private static final int IMAGE_SIZE = 1176;
+	/** Time every client gets to connect again after the drop, longer than the first few attempts of a display. */
+	private static final int RECONNECT_SECONDS = 10;
+
+	/**
+	 * Runs the load, see the class comment for the arguments.
+	 *
+	 * @param args the options, then clients, seconds, frames per second and uri
+	 * @throws Exception if a display can't be created or the local server can't be started
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean deflate = false;
+		long latencyMillis = 5;
+		long jitterMillis = 10;
+		int options = 0;
+		for (; options < args.length && args[options].startsWith("--"); options++) {
+			switch (args[options]) {
+			case "--deflate":
+				deflate = true;
+				break;
+			case "--latency":
+				latencyMillis = Long.parseLong(args[++options]);
+				break;
+			case "--jitter":
+				jitterMillis = Long.parseLong(args[++options]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[options]);
+			}
+		}
+		args = Arrays.copyOfRange(args, options, args.length);
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int fps = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		LocalLighthouseServer server = null;
+		String uri;
+		if (args.length > 3) {
+			uri = args[3];
+		} else {
+			server = new LocalLighthouseServer(0);
+			server.setLatency(latencyMillis, jitterMillis);
+			server.setDeflate(deflate);
+			uri = server.getURI();
+		}
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+		int threadsBefore = Thread.activeCount();
+
+		// the query parameter makes every client a separate LighthouseDisplay
+		List<LighthouseDisplay> displays = new ArrayList<>(clients);
+		long connectStart = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			LighthouseDisplay display = LighthouseDisplay.getDisplay(uri + "?client=" + i, false, 0, deflate);
+			display.setUsername("load" + i);
+			display.setToken("load");
+			displays.add(display);
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (connected(displays) < clients && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+
+		System.gc();
+		long heapConnected = memory.getHeapMemoryUsage().getUsed();
+		int threadsConnected = Thread.activeCount();
+		System.out.printf("connected %d/%d clients in %d ms, compressed: %d%n", connected(displays), clients,
+				connectMillis, compressed(displays));
+		System.out.printf("heap per connection: %.1f KiB, threads per connection: %.1f%n",
+				(heapConnected - heapBefore) / 1024.0 / clients, (threadsConnected - threadsBefore) / (double) clients);
+
+		// every client sends its own moving pattern at the given frame rate
+		ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+				Math.max(1, Runtime.getRuntime().availableProcessors()));
+		LongAdder sendErrors = new LongAdder();
+		long periodNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+		for (int i = 0; i < clients; i++) {
+			LighthouseDisplay display = displays.get(i);
+			byte[] image = new byte[IMAGE_SIZE];
+			int[] pixel = { i };
+			senders.scheduleAtFixedRate(() -> {
+				image[pixel[0]++ % IMAGE_SIZE] = (byte) 255;
+				try {
+					display.sendImage(image);
+				} catch (Exception e) {
+					// frames dropped or failed while being written are counted by the display itself
+					sendErrors.increment();
+				}
+			}, periodNanos * i / clients, periodNanos, TimeUnit.NANOSECONDS);
+		}
+
+		long start = System.nanoTime();
+		boolean disconnected = false;
+		for (int second = 1; second <= seconds; second++) {
+			Thread.sleep(1000);
+			if (server != null && !disconnected && second >= seconds / 2) {
+				server.disconnectAll();
+				disconnected = true;
+				System.out.println("server dropped all connections");
+			}
+			report(displays, server, sendErrors.sum(), start);
+		}
+		senders.shutdownNow();
+
+		boolean failed = false;
+		if (disconnected) {
+			// every client has to be back, the run may have ended right after the drop
+			deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RECONNECT_SECONDS);
+			while (reconnected(displays) < clients && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			int reconnected = reconnected(displays);
+			long reconnects = 0;
+			for (LighthouseDisplay display : displays) {
+				reconnects += display.getReconnects();
+			}
+			failed = reconnected < clients;
+			System.out.printf("reconnected %d/%d clients (%d reconnects), server connections: %d%s%n", reconnected,
+					clients, reconnects, server.getOpenConnections(), failed ? "  FAILED" : "");
+		}
+		for (LighthouseDisplay display : displays) {
+			display.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * @param displays the clients
+	 * @return number of clients which connected again and are connected
+	 */
+	private static int reconnected(List<LighthouseDisplay> displays) {
+		int reconnected = 0;
+		for (LighthouseDisplay display : displays) {
+			if (display.getReconnects() > 0 && display.isConnected()) {
+				reconnected++;
+			}
+		}
+		return reconnected;
+	}
+
+	/**
+	 * @param displays the clients
+	 * @return number of clients whose connection is compressed
+	 */
+	private static int compressed(List<LighthouseDisplay> displays) {
+		int compressed = 0;
+		for (LighthouseDisplay display : displays) {
+			if (display.isCompressed()) {
+				compressed++;
+			}
+		}
+		return compressed;
+	}
+
+	/**
+	 * @param displays the clients
+	 * @return number of clients which are connected
+	 */
+	private static int connected(List<LighthouseDisplay> displays) {
+		int connected = 0;
+		for (LighthouseDisplay display : displays) {
+			if (display.isConnected()) {
+				connected++;
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Prints the totals of all clients and of the local server since the start.
+	 *
+	 * @param displays the clients
+	 * @param server the local server, null for none
+	 * @param sendErrors number of frames sendImage refused with an exception
+	 * @param start the start of the sending, in System.nanoTime()
+	 */
+	private static void report(List<LighthouseDisplay> displays, LocalLighthouseServer server, long sendErrors,
+			long start) {
+		long sent = 0, dropped = 0, failures = 0, bytes = 0, wireBytes = 0;
+		for (LighthouseDisplay display : displays) {
+			sent += display.getFramesSent();
+			dropped += display.getFramesDropped();
+			failures += display.getWriteFailures();
+			bytes += display.getBytesOut();
+			wireBytes += display.getWireBytesOut();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%5.1fs connected %4d  sent %8d (%7.0f/s, %6.2f MB/s on the wire, %5.0f/%5.0f B per frame)"
+				+ "  dropped %7d  failed %5d  send errors %5d%s%n",
+				elapsed, connected(displays), sent, sent / elapsed, wireBytes / elapsed / 1e6,
+				wireBytes / (double) Math.max(1, sent), bytes / (double) Math.max(1, sent), dropped, failures,
+				sendErrors, server == null ? "" : String.format("  server received %8d  throttled %d  failures %d",
+						server.getImagesReceived(), server.getRequestsThrottled(), server.getFailures()));
+	}
+}
@@ -0,0 +1,786 @@
+package lighthouse;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.Value;
+import org.msgpack.value.impl.ImmutableStringValueImpl;
+
+/**
+ * An in-process stand-in for the lighthouse server to test LighthouseDisplay without the real
+ * facade. It speaks the same msgpack PUT/STREAM protocol over plain web-sockets (ws://), answers
+ * every request and can inject keyboard and controller events into the input streams.
+ * Latency, jitter, throttling and disconnects can be simulated.
+ *
+ * The web-socket handling is kept to what LighthouseDisplay needs: binary and text messages,
+ * fragmentation, ping, close and, if enabled, compressed messages from the client
+ * (permessage-deflate). Responses are always sent uncompressed.
+ */
+public class LocalLighthouseServer {
+
+	/** Appended to the key of the handshake before hashing it, fixed by RFC 6455. */
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	/** Opcode of a frame continuing a fragmented message. */
+	private static final int OPCODE_CONTINUATION = 0x0;
+	/** Opcode of a text message, accepted but not answered. */
+	private static final int OPCODE_TEXT = 0x1;
+	/** Opcode of a binary message, the msgpack requests. */
+	private static final int OPCODE_BINARY = 0x2;
+	/** Opcode of a close frame. */
+	private static final int OPCODE_CLOSE = 0x8;
+	/** Opcode of a ping frame. */
+	private static final int OPCODE_PING = 0x9;
+	/** Opcode of a pong frame. */
+	private static final int OPCODE_PONG = 0xA;
+	/** Bytes of an image: 28 columns, 14 rows, 3 colors. */
+	private static final int IMAGE_SIZE = 1176;
+	/** Largest message accepted, larger ones drop the connection. */
+	private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+	/** The empty block the sender removes from the end of every compressed message. */
+	private static final byte[] DEFLATE_TAIL = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+	/** Accepts the connections. */
+	private final ServerSocket serverSocket;
+	/** Sends the delayed responses. */
+	private final ScheduledExecutorService responder = Executors.newScheduledThreadPool(2, runnable -> {
+		Thread thread = new Thread(runnable, "LocalLighthouseServer-responder");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** The open connections. */
+	private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+	/** The last image of every user. */
+	private final Map<String, byte[]> lastImages = new ConcurrentHashMap<>();
+	/** Set by {@link #close()}. */
+	private volatile boolean closed = false;
+
+	/** The only user accepted, null to accept everyone. */
+	private volatile String username;
+	/** The token of the user, checked if a username is set. */
+	private volatile String token;
+	/** Fixed delay of every response. */
+	private volatile long latencyMillis;
+	/** Largest random delay added to every response. */
+	private volatile long jitterMillis;
+	/** Requests per second and connection answered normally, 0 for no limit. */
+	private volatile int maxRequestsPerSecond;
+	/** Chance to drop the connection instead of answering a request. */
+	private volatile double disconnectChance;
+	/** Set to accept permessage-deflate on new connections. */
+	private volatile boolean deflate;
+
+	/** Number of images accepted. */
+	private final LongAdder imagesReceived = new LongAdder();
+	/** Number of bytes received in messages. */
+	private final LongAdder bytesReceived = new LongAdder();
+	/** Number of requests answered with 429. */
+	private final LongAdder requestsThrottled = new LongAdder();
+	/** Number of connections accepted. */
+	private final LongAdder connectionsAccepted = new LongAdder();
+	/** Number of errors: connections ended by a broken or failed read or write and failed accepts. */
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Creates the server and starts accepting connections on the loopback interface.
+	 *
+	 * @param port
+	 *            the port to listen on, 0 to pick a free one
+	 * @throws IOException
+	 *             if the port can't be opened
+	 */
+	public LocalLighthouseServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "LocalLighthouseServer-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the URI to pass to LighthouseDisplay.getDisplay
+	 */
+	public String getURI() {
+		return "ws://localhost:" + getPort() + "/websocket";
+	}
+
+	/**
+	 * Only accepts requests with the given username and token. Other requests are answered with 401.
+	 * Without credentials every request is accepted.
+	 *
+	 * @param username the username or null
+	 * @param token the token or null
+	 */
+	public void setCredentials(String username, String token) {
+		this.username = username;
+		this.token = token;
+	}
+
+	/**
+	 * Delays every response.
+	 *
+	 * @param latencyMillis the fixed delay
+	 * @param jitterMillis an additional random delay of up to this many milliseconds.
+	 *            Responses of one connection stay in order.
+	 */
+	public void setLatency(long latencyMillis, long jitterMillis) {
+		this.latencyMillis = latencyMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Answers requests beyond the given rate of a connection with 429 instead of accepting them.
+	 *
+	 * @param maxRequestsPerSecond the allowed requests per second and connection, 0 for no limit
+	 */
+	public void setThrottle(int maxRequestsPerSecond) {
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+	}
+
+	/**
+	 * Accepts permessage-deflate if a client offers it. Only affects new connections.
+	 * Off by default, like a server without compression support.
+	 *
+	 * @param deflate true to accept the extension
+	 */
+	public void setDeflate(boolean deflate) {
+		this.deflate = deflate;
+	}
+
+	/**
+	 * Drops the connection instead of answering a request with the given chance.
+	 *
+	 * @param disconnectChance the chance between 0 and 1
+	 */
+	public void setDisconnectChance(double disconnectChance) {
+		this.disconnectChance = disconnectChance;
+	}
+
+	/**
+	 * Drops all open connections without a close handshake, like a network failure.
+	 */
+	public void disconnectAll() {
+		for (Connection connection : connections) {
+			connection.abort();
+		}
+	}
+
+	/**
+	 * Sends a keyboard event to every input stream of the user.
+	 *
+	 * @param user the user whose streams get the event
+	 * @param source the number of the input device
+	 * @param key the key code
+	 * @param down true if the key was pressed
+	 */
+	public void sendKeyEvent(String user, int source, int key, boolean down) {
+		sendInputEvent(user, source, "key", key, down);
+	}
+
+	/**
+	 * Sends a controller event to every input stream of the user.
+	 *
+	 * @param user the user whose streams get the event
+	 * @param source the number of the input device
+	 * @param button the button number
+	 * @param down true if the button was pressed
+	 */
+	public void sendControllerEvent(String user, int source, int button, boolean down) {
+		sendInputEvent(user, source, "btn", button, down);
+	}
+
+	/**
+	 * @param user the user
+	 * @return the last image sent by the user or null
+	 */
+	public byte[] getLastImage(String user) {
+		return lastImages.get(user);
+	}
+
+	/**
+	 * @return number of images accepted
+	 */
+	public long getImagesReceived() {
+		return imagesReceived.sum();
+	}
+
+	/**
+	 * @return number of bytes received in web-socket messages, compressed messages are
+	 *         counted with their compressed size
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	/**
+	 * @return number of requests answered with 429
+	 */
+	public long getRequestsThrottled() {
+		return requestsThrottled.sum();
+	}
+
+	/**
+	 * @return number of connections accepted so far
+	 */
+	public long getConnectionsAccepted() {
+		return connectionsAccepted.sum();
+	}
+
+	/**
+	 * @return number of connections currently open
+	 */
+	public int getOpenConnections() {
+		return connections.size();
+	}
+
+	/**
+	 * @return number of errors so far: connections ended by a broken message or a failed read or
+	 *         write, and connections which could not be accepted. Connections dropped by the
+	 *         client or by the simulated disconnects are not counted.
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Stops the server and drops all connections.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			failures.increment();
+		}
+		disconnectAll();
+		responder.shutdownNow();
+	}
+
+	/**
+	 * Accepts connections until the server is closed, each is read by a thread of its own.
+	 */
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Connection connection = new Connection(socket);
+				connections.add(connection);
+				connectionsAccepted.increment();
+				Thread thread = new Thread(connection, "LocalLighthouseServer-connection");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (!closed) {
+					failures.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends an input event to every input stream of the user.
+	 *
+	 * @param user the user whose streams get the event
+	 * @param source the number of the input device
+	 * @param type "key" or "btn"
+	 * @param button the key code or button number
+	 * @param down true if it was pressed
+	 */
+	private void sendInputEvent(String user, int source, String type, int button, boolean down) {
+		MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+		try {
+			packer.packMapHeader(3);
+			{
+				packer.packString("REID");
+				packer.packInt(-1);
+
+				packer.packString("RNUM");
+				packer.packInt(200);
+
+				packer.packString("PAYL");
+				packer.packMapHeader(3);
+				{
+					packer.packString("src");
+					packer.packInt(source);
+
+					packer.packString(type);
+					packer.packInt(button);
+
+					packer.packString("dwn");
+					packer.packBoolean(down);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] message = packer.toByteArray();
+		for (Connection connection : connections) {
+			if (connection.streams.contains(user)) {
+				connection.sendLater(message, 0);
+			}
+		}
+	}
+
+	/**
+	 * One web-socket connection, read by its own thread.
+	 */
+	private class Connection implements Runnable {
+
+		/** The socket of the connection. */
+		private final Socket socket;
+		/** The users whose input streams were requested on this connection. */
+		private final Set<String> streams = ConcurrentHashMap.newKeySet();
+		/** When the last response is sent, in System.nanoTime(). That may be negative, so times are
+		 * only compared by their difference. */
+		private final AtomicLong lastResponseTime = new AtomicLong(System.nanoTime());
+		/** Writes the frames, guarded by this. */
+		private OutputStream out;
+		/** Set if permessage-deflate was negotiated, keeps its context for the whole connection. */
+		private Inflater inflater;
+		/** Start of the second the requests are counted in for throttling, in System.nanoTime(). */
+		private long throttleWindowStart;
+		/** Requests in that second. */
+		private int throttleWindowRequests;
+
+		/**
+		 * @param socket the socket of the accepted connection
+		 */
+		private Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		/**
+		 * Makes the handshake and answers the messages until the connection ends.
+		 */
+		@Override
+		public void run() {
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				out = socket.getOutputStream();
+				if (!handshake(in)) {
+					return;
+				}
+				ByteArrayOutputStream message = new ByteArrayOutputStream();
+				int messageOpcode = OPCODE_BINARY;
+				boolean messageCompressed = false;
+				while (!closed) {
+					int head = readByte(in);
+					boolean fin = (head & 0x80) != 0;
+					boolean rsv1 = (head & 0x40) != 0;
+					int opcode = head & 0x0F;
+					byte[] payload = readPayload(in);
+					switch (opcode) {
+					case OPCODE_CLOSE:
+						writeFrame(OPCODE_CLOSE, payload);
+						return;
+					case OPCODE_PING:
+						writeFrame(OPCODE_PONG, payload);
+						break;
+					case OPCODE_PONG:
+						break;
+					default:
+						if (opcode != OPCODE_CONTINUATION) {
+							message.reset();
+							messageOpcode = opcode;
+							messageCompressed = rsv1;
+							if (rsv1 && inflater == null) {
+								throw new IOException("compressed message without permessage-deflate");
+							}
+						}
+						message.write(payload);
+						if (message.size() > MAX_MESSAGE_SIZE) {
+							throw new IOException("message too large");
+						}
+						if (fin) {
+							bytesReceived.add(message.size());
+							if (messageOpcode == OPCODE_BINARY) {
+								onRequest(messageCompressed ? inflate(message) : message.toByteArray());
+							}
+						}
+						break;
+					}
+				}
+			} catch (EOFException | SocketException e) {
+				// connection dropped by the client or by abort()
+			} catch (IOException e) {
+				failures.increment();
+			} finally {
+				abort();
+				if (inflater != null) {
+					inflater.end();
+				}
+			}
+		}
+
+		/**
+		 * Reads the upgrade request and answers it, accepting permessage-deflate if enabled.
+		 *
+		 * @param in the input of the socket
+		 * @return false if it was no web-socket upgrade and was answered with 400
+		 * @throws IOException if reading or writing fails
+		 */
+		private boolean handshake(InputStream in) throws IOException {
+			Map<String, String> headers = new HashMap<>();
+			String requestLine = readLine(in);
+			String line;
+			while (!(line = readLine(in)).isEmpty()) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+			}
+			String key = headers.get("sec-websocket-key");
+			if (!requestLine.startsWith("GET ") || key == null
+					|| !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+				out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				return false;
+			}
+			String response = "HTTP/1.1 101 Switching Protocols\r\n"
+					+ "Upgrade: websocket\r\n"
+					+ "Connection: Upgrade\r\n"
+					+ "Sec-WebSocket-Accept: " + accept(key) + "\r\n";
+			String extensions = headers.get("sec-websocket-extensions");
+			if (deflate && extensions != null && extensions.contains("permessage-deflate")) {
+				// accepted without parameters: both sides keep their context, full window
+				inflater = new Inflater(true);
+				response += "Sec-WebSocket-Extensions: permessage-deflate\r\n";
+			}
+			response += "\r\n";
+			synchronized (this) {
+				out.write(response.getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			}
+			return true;
+		}
+
+		/**
+		 * Decompresses a message, the sender removed the empty block at its end.
+		 *
+		 * @param message the compressed message, the block is appended to it
+		 * @return the message
+		 * @throws IOException if it is no valid compressed data or too large
+		 */
+		private byte[] inflate(ByteArrayOutputStream message) throws IOException {
+			message.write(DEFLATE_TAIL);
+			inflater.setInput(message.toByteArray());
+			ByteArrayOutputStream inflated = new ByteArrayOutputStream(IMAGE_SIZE + 256);
+			byte[] buffer = new byte[4096];
+			try {
+				while (!inflater.needsInput()) {
+					int length = inflater.inflate(buffer);
+					if (length == 0 && !inflater.needsInput()) {
+						throw new IOException("invalid compressed message");
+					}
+					inflated.write(buffer, 0, length);
+					if (inflated.size() > MAX_MESSAGE_SIZE) {
+						throw new IOException("message too large");
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("invalid compressed message", e);
+			}
+			return inflated.toByteArray();
+		}
+
+		/**
+		 * Answers a request: accepts images and input stream requests, checks the credentials and
+		 * the throttle and simulates disconnects and latency.
+		 *
+		 * @param request the msgpack request
+		 * @throws IOException if the response can't be encoded
+		 */
+		private void onRequest(byte[] request) throws IOException {
+			int reid = 0;
+			int rnum;
+			String verb;
+			String user = null;
+			try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(request)) {
+				Map<Value, Value> map = unpacker.unpackValue().asMapValue().map();
+				reid = map.get(new ImmutableStringValueImpl("REID")).asIntegerValue().toInt();
+				verb = map.get(new ImmutableStringValueImpl("VERB")).asStringValue().asString();
+				Map<Value, Value> auth = map.get(new ImmutableStringValueImpl("AUTH")).asMapValue().map();
+				user = auth.get(new ImmutableStringValueImpl("USER")).asStringValue().asString();
+				String requestToken = auth.get(new ImmutableStringValueImpl("TOKEN")).asStringValue().asString();
+				Value payload = map.get(new ImmutableStringValueImpl("PAYL"));
+
+				if (username != null && (!username.equals(user) || !Objects.equals(token, requestToken))) {
+					rnum = 401;
+				} else if (throttled()) {
+					rnum = 429;
+					requestsThrottled.increment();
+				} else if ("PUT".equals(verb) && payload.isBinaryValue()
+						&& payload.asBinaryValue().asByteArray().length == IMAGE_SIZE) {
+					lastImages.put(user, payload.asBinaryValue().asByteArray());
+					imagesReceived.increment();
+					rnum = 200;
+				} else if ("STREAM".equals(verb)) {
+					streams.add(user);
+					rnum = 200;
+				} else {
+					rnum = 400;
+				}
+			} catch (MessagePackException | NullPointerException e) {
+				rnum = 400;
+			}
+
+			if (disconnectChance > 0 && ThreadLocalRandom.current().nextDouble() < disconnectChance) {
+				abort();
+				return;
+			}
+			sendLater(response(reid, rnum), latencyMillis + (jitterMillis > 0
+					? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0));
+		}
+
+		/**
+		 * @return true if the request is beyond the allowed requests per second of the connection
+		 */
+		private boolean throttled() {
+			int max = maxRequestsPerSecond;
+			if (max <= 0) {
+				return false;
+			}
+			long now = System.nanoTime();
+			if (now - throttleWindowStart > TimeUnit.SECONDS.toNanos(1)) {
+				throttleWindowStart = now;
+				throttleWindowRequests = 0;
+			}
+			return ++throttleWindowRequests > max;
+		}
+
+		/**
+		 * @param reid the id of the request
+		 * @param rnum the status, 200 if accepted
+		 * @return the msgpack response
+		 * @throws IOException if it can't be encoded
+		 */
+		private byte[] response(int reid, int rnum) throws IOException {
+			MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+			packer.packMapHeader(5);
+			{
+				packer.packString("REID");
+				packer.packInt(reid);
+
+				packer.packString("RNUM");
+				packer.packInt(rnum);
+
+				packer.packString("RESPONSE");
+				packer.packString(rnum == 200 ? "OK" : "Error " + rnum);
+
+				packer.packString("META");
+				packer.packMapHeader(0);
+
+				packer.packString("PAYL");
+				packer.packNil();
+			}
+			return packer.toByteArray();
+		}
+
+		/**
+		 * Sends a binary message after the given delay, but never before a message sent
+		 * earlier on this connection.
+		 *
+		 * @param message the message
+		 * @param delayMillis the delay, 0 to send it at once if nothing is waiting
+		 */
+		private void sendLater(byte[] message, long delayMillis) {
+			if (delayMillis <= 0 && lastResponseTime.get() - System.nanoTime() <= 0) {
+				send(message);
+				return;
+			}
+			long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			long scheduled = lastResponseTime.accumulateAndGet(due, (last, next) -> next - last > 0 ? next : last);
+			try {
+				responder.schedule(() -> send(message), scheduled - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				// server closed
+			}
+		}
+
+		/**
+		 * Sends a binary message now, a failed write drops the connection.
+		 *
+		 * @param message the message
+		 */
+		private void send(byte[] message) {
+			try {
+				writeFrame(OPCODE_BINARY, message);
+			} catch (IOException e) {
+				if (connections.contains(this)) {
+					failures.increment();
+				}
+				abort();
+			}
+		}
+
+		/**
+		 * Writes an unmasked frame holding a whole message.
+		 *
+		 * @param opcode the opcode
+		 * @param payload the payload
+		 * @throws IOException if writing fails
+		 */
+		private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+			out.write(0x80 | opcode);
+			if (payload.length < 126) {
+				out.write(payload.length);
+			} else if (payload.length < 65536) {
+				out.write(126);
+				out.write(payload.length >>> 8);
+				out.write(payload.length);
+			} else {
+				out.write(127);
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					out.write((int) ((long) payload.length >>> shift));
+				}
+			}
+			out.write(payload);
+			out.flush();
+		}
+
+		/**
+		 * Drops the connection without a close handshake.
+		 */
+		private void abort() {
+			connections.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				failures.increment();
+			}
+		}
+	}
+
+	/**
+	 * @param key the key of the upgrade request
+	 * @return the value of the Sec-WebSocket-Accept header
+	 */
+	private static String accept(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param in the input
+	 * @return the next byte
+	 * @throws EOFException at the end of the input
+	 * @throws IOException if reading fails
+	 */
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	/**
+	 * Reads the rest of a frame after its first byte and unmasks it.
+	 *
+	 * @param in the input
+	 * @return the payload
+	 * @throws IOException if reading fails or the frame is too large
+	 */
+	private static byte[] readPayload(InputStream in) throws IOException {
+		int second = readByte(in);
+		boolean masked = (second & 0x80) != 0;
+		long length = second & 0x7F;
+		if (length == 126) {
+			length = (readByte(in) << 8) | readByte(in);
+		} else if (length == 127) {
+			length = 0;
+			for (int i = 0; i < 8; i++) {
+				length = (length << 8) | readByte(in);
+			}
+		}
+		if (length > MAX_MESSAGE_SIZE) {
+			throw new IOException("frame too large");
+		}
+		byte[] mask = new byte[4];
+		if (masked) {
+			readFully(in, mask);
+		}
+		byte[] payload = new byte[(int) length];
+		readFully(in, payload);
+		if (masked) {
+			for (int i = 0; i < payload.length; i++) {
+				payload[i] ^= mask[i & 3];
+			}
+		}
+		return payload;
+	}
+
+	/**
+	 * @param in the input
+	 * @param buffer filled completely
+	 * @throws EOFException if the input ends before
+	 * @throws IOException if reading fails
+	 */
+	private static void readFully(InputStream in, byte[] buffer) throws IOException {
+		int read = 0;
+		while (read < buffer.length) {
+			int n = in.read(buffer, read, buffer.length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+	}
+
+	/**
+	 * @param in the input
+	 * @return the next line of the handshake without the line break
+	 * @throws IOException if reading fails
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = readByte(in)) != '\n') {
+			if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		return line.toString();
+	}
+}
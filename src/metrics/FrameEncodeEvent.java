@@ -0,0 +1,21 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**Flight Recorder event for encoding one lighthouse frame as a request.
+ */
+@Name("fourthewin.FrameEncode")
+@Label("Frame Encode")
+@Category({ "FourTheWin", "Lighthouse" })
+@Description("A lighthouse image was encoded as a request")
+public class FrameEncodeEvent extends jdk.jfr.Event {
+	/** Size of the encoded request. */
+	@Label("Bytes")
+	@DataAmount
+	public int bytes;
+
+}
@@ -0,0 +1,24 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**Flight Recorder event for handing one lighthouse request to the web-socket.
+ */
+@Name("fourthewin.FrameSend")
+@Label("Frame Send")
+@Category({ "FourTheWin", "Lighthouse" })
+@Description("A lighthouse request was sent or dropped")
+public class FrameSendEvent extends jdk.jfr.Event {
+	/** Size of the request. */
+	@Label("Bytes")
+	@DataAmount
+	public int bytes;
+	/** False if the request was dropped because there was no connection. */
+	@Label("Sent")
+	public boolean sent;
+
+}
@@ -0,0 +1,179 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Values are counted in log-linear buckets like in HdrHistogram:
+ * every power of two is split into {@link #SUB_BUCKETS} / 2 buckets, so a percentile is off by less than 1/128 of its
+ * value. Recording is one atomic increment and never allocates.
+ */
+public class LatencyHistogram {
+	/** Bits of a value kept exactly. */
+	private static final int SUB_BUCKET_BITS = 8;
+	/** Buckets for the values below 2^SUB_BUCKET_BITS, also the resolution of the larger values. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Buckets needed to cover all positive longs, which have at most 63 bits. */
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS / 2 + SUB_BUCKETS;
+
+	/** The count of every bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/** Number of recorded values. */
+	private final AtomicLong totalCount = new AtomicLong();
+	/** The largest recorded value. */
+	private final AtomicLong max = new AtomicLong();
+
+	/**Records a duration.
+	 * @param nanos the duration, negative values are counted as 0. */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		totalCount.incrementAndGet();
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+			// retry until the maximum is ours or larger
+		}
+	}
+
+	/** @return number of recorded values. */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/** @return the largest recorded value. */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**Returns the value below which the given fraction of the recorded values lie. Values recorded while this is
+	 * calculated may or may not be included.
+	 * @param quantile the fraction between 0 and 1, e.g. 0.99 for the 99th percentile.
+	 * @return the upper bound of the bucket containing the percentile, 0 if nothing was recorded. */
+	public long getValueAtQuantile(double quantile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long) Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= wanted) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/** Forgets all recorded values. Values recorded at the same time may get lost. */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		max.set(0);
+	}
+
+	/**Checks the bucket math from the command line and exits with 1 if a check fails:
+	 * <ul>
+	 * <li>the buckets cover every value from 0 to Long.MAX_VALUE without gaps or overlaps, and every value lies in
+	 * its bucket,</li>
+	 * <li>every bucket from 2^SUB_BUCKET_BITS on is less than 1/128 of its values wide,</li>
+	 * <li>the percentiles of random durations are at least the exact ones and less than 1/128 above them,</li>
+	 * <li>values recorded by several threads at once are all counted.</li>
+	 * </ul>
+	 * @param args not used.
+	 * @throws InterruptedException if interrupted while waiting for the threads. */
+	public static void main(String[] args) throws InterruptedException {
+		boolean correct = true;
+		long lowest = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long highest = highestValue(i);
+			boolean ok = highest >= lowest && index(lowest) == i && index(highest) == i
+					&& (lowest < SUB_BUCKETS || (highest - lowest) * 128 < lowest);
+			if (!ok) {
+				System.out.printf("WRONG bucket %d: %d to %d%n", i, lowest, highest);
+				correct = false;
+			}
+			if (highest == Long.MAX_VALUE) {
+				if (i != BUCKETS - 1) {
+					System.out.printf("WRONG %d buckets, Long.MAX_VALUE is in bucket %d%n", BUCKETS, i);
+					correct = false;
+				}
+				break;
+			}
+			lowest = highest + 1;
+		}
+		System.out.printf("%d buckets from 0 to Long.MAX_VALUE%s%n", BUCKETS, correct ? "  ok" : "");
+
+		Random random = new Random(1);
+		LatencyHistogram histogram = new LatencyHistogram();
+		long[] values = new long[1_000_000];
+		for (int i = 0; i < values.length; i++) {
+			// log-normal like real latencies, from nanoseconds to minutes
+			values[i] = (long) Math.exp(random.nextGaussian() * 3 + 12);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double quantile : new double[] { 0, 0.5, 0.9, 0.99, 0.999, 0.9999, 1 }) {
+			long exact = values[(int) Math.max(0, Math.ceil(quantile * values.length) - 1)];
+			long value = histogram.getValueAtQuantile(quantile);
+			boolean ok = value >= exact && (value - exact) * 128 <= Math.max(exact, SUB_BUCKETS);
+			System.out.printf("quantile %-7s exact %15d histogram %15d  %s%n", quantile, exact, value,
+					ok ? "ok" : "WRONG");
+			correct &= ok;
+		}
+
+		LatencyHistogram shared = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 1_000_000; i++) {
+					shared.record(i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long counted = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counted += shared.counts.get(i);
+		}
+		boolean ok = shared.getCount() == 4_000_000 && counted == 4_000_000 && shared.getMax() == 999_999;
+		System.out.printf("4 threads recorded %d values, %d in the buckets, max %d  %s%n", shared.getCount(), counted,
+				shared.getMax(), ok ? "ok" : "WRONG");
+		correct &= ok;
+		if (!correct) {
+			System.exit(1);
+		}
+	}
+
+	/**Returns the bucket of a value.
+	 * @param value a value of at least 0.
+	 * @return the index of the bucket. */
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// shift the value so it falls in the upper half of the sub buckets
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * (SUB_BUCKETS / 2) + (int) (value >>> shift);
+	}
+
+	/**Returns the largest value counted in a bucket.
+	 * @param index the index of the bucket.
+	 * @return the upper bound of the bucket. */
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / (SUB_BUCKETS / 2) - 1;
+		long subBucket = index - shift * (SUB_BUCKETS / 2);
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,164 @@
+package metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traces the time from a key press until the server confirmed the updated lighthouse frame. Every input starts a new
+ * trace, the following stages are marked by the code doing the work, usually on other threads. Only one trace is open
+ * at a time: an input during a running trace restarts it. The duration of every stage is recorded in its own
+ * {@link LatencyHistogram}. Marks outside of an open trace only cost a volatile read.
+ * The traces restarted this way are the slow ones, so the percentiles are too low when many are. They are counted,
+ * and the time they had run when they were dropped is kept as a lower bound of their latency; {@link #dump} prints
+ * both next to the stages.
+ */
+public final class LatencyTracer {
+
+	/** The stages of a trace in the order they are passed. */
+	public enum Stage {
+		/** From the input event until the DataModell was changed. */
+		MODEL,
+		/** From the change until the frame was drawn. */
+		COMPOSE,
+		/** From the drawn frame until it was handed to the web-socket. */
+		SEND,
+		/** From sending until the server answered the request. */
+		RESPONSE;
+	}
+
+	/** Value of {@link #nextStage} while no trace is open. */
+	private static final int IDLE = -1;
+	/** The stages, cached to avoid copying the array. */
+	private static final Stage[] STAGES = Stage.values();
+	/** The histogram of every stage. */
+	private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+	/** The histogram from input until the response. */
+	private static final LatencyHistogram TOTAL = new LatencyHistogram();
+	/** The time the traces dropped by a later input had run, from input until they were dropped. */
+	private static final LatencyHistogram DROPPED = new LatencyHistogram();
+
+	static {
+		for (int i = 0; i < HISTOGRAMS.length; i++) {
+			HISTOGRAMS[i] = new LatencyHistogram();
+		}
+	}
+
+	/** Start of the open trace. */
+	private static volatile long traceStart;
+	/** Time of the last mark of the open trace. */
+	private static volatile long lastMark;
+	/** Ordinal of the stage to be marked next or IDLE. */
+	private static volatile int nextStage = IDLE;
+	/** Number of the sent request whose response ends the open trace. */
+	private static volatile long awaitedResponse;
+	/** Number of requests sent to the lighthouse. */
+	private static final AtomicLong sentRequests = new AtomicLong();
+	/** Number of responses received from the lighthouse. */
+	private static final AtomicLong receivedResponses = new AtomicLong();
+	/** Number of traces started. */
+	private static final AtomicLong inputs = new AtomicLong();
+
+	/** Only static methods. */
+	private LatencyTracer() {
+	}
+
+	/** Starts a new trace, dropping the open one. Call this first thing when handling an input event. */
+	public static void input() {
+		long now = System.nanoTime();
+		inputs.incrementAndGet();
+		if (nextStage != IDLE) {
+			DROPPED.record(now - traceStart);
+		}
+		traceStart = now;
+		lastMark = now;
+		nextStage = 0;
+	}
+
+	/**Marks the end of a stage. Ignored if no trace is open or the trace is at another stage.
+	 * @param stage the stage just finished. */
+	public static void mark(Stage stage) {
+		if (nextStage != stage.ordinal()) {
+			return;
+		}
+		record(stage, System.nanoTime());
+	}
+
+	/** Counts a request sent to the lighthouse and marks the end of SEND. Call this for every request which gets a
+	 * response, so responses can be matched to requests. */
+	public static void sent() {
+		long request = sentRequests.incrementAndGet();
+		if (nextStage == Stage.SEND.ordinal()) {
+			awaitedResponse = request;
+			record(Stage.SEND, System.nanoTime());
+		}
+	}
+
+	/** Counts a request sent to the lighthouse which no input caused, like the resend of the last frame keeping the
+	 * display awake. It does not end the SEND stage, but its response is expected like the others. */
+	public static void resent() {
+		sentRequests.incrementAndGet();
+	}
+
+	/** Counts a response of the lighthouse and closes the trace if it answers the traced request. The lighthouse
+	 * answers requests in order. */
+	public static void response() {
+		long response = receivedResponses.incrementAndGet();
+		if (nextStage == Stage.RESPONSE.ordinal() && response >= awaitedResponse) {
+			long now = System.nanoTime();
+			record(Stage.RESPONSE, now);
+			TOTAL.record(now - traceStart);
+			nextStage = IDLE;
+		}
+	}
+
+	/**Returns the histogram of a stage.
+	 * @param stage the stage.
+	 * @return the histogram. */
+	public static LatencyHistogram getHistogram(Stage stage) {
+		return HISTOGRAMS[stage.ordinal()];
+	}
+
+	/** @return the histogram from input until the response. */
+	public static LatencyHistogram getTotalHistogram() {
+		return TOTAL;
+	}
+
+	/** @return the time the traces dropped by a later input had run when they were dropped. */
+	public static LatencyHistogram getDroppedHistogram() {
+		return DROPPED;
+	}
+
+	/** @return number of traces started. */
+	public static long getInputs() {
+		return inputs.get();
+	}
+
+	/**Prints count, p50, p99, p99.9 and maximum of every stage in microseconds.
+	 * @param out where to print. */
+	public static void dump(PrintStream out) {
+		out.printf("%-10s %8s %10s %10s %10s %10s%n", "stage", "count", "p50 us", "p99 us", "p99.9 us", "max us");
+		for (Stage stage : STAGES) {
+			dump(out, stage.name(), HISTOGRAMS[stage.ordinal()]);
+		}
+		dump(out, "TOTAL", TOTAL);
+		dump(out, "DROPPED", DROPPED);
+		long started = inputs.get();
+		out.printf("%d of %d traces dropped by a later input (%.1f%%), the percentiles above leave them out%n",
+				DROPPED.getCount(), started, started == 0 ? 0 : 100.0 * DROPPED.getCount() / started);
+	}
+
+	/** Prints one line of the dump. */
+	private static void dump(PrintStream out, String name, LatencyHistogram histogram) {
+		out.printf("%-10s %8d %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+				histogram.getValueAtQuantile(0.5) / 1000.0, histogram.getValueAtQuantile(0.99) / 1000.0,
+				histogram.getValueAtQuantile(0.999) / 1000.0, histogram.getMax() / 1000.0);
+	}
+
+	/** Records the duration since the last mark and moves on to the next stage. */
+	private static void record(Stage stage, long now) {
+		HISTOGRAMS[stage.ordinal()].record(now - lastMark);
+		lastMark = now;
+		nextStage = stage.ordinal() + 1;
+	}
+
+}
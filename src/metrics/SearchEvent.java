@@ -0,0 +1,71 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**Flight Recorder event for one search of the computer player. The duration of the event is the search time.
+ */
+@Name("fourthewin.Search")
+@Label("AI Search")
+@Category({ "FourTheWin", "AI" })
+@Description("The computer player searched for a move")
+public class SearchEvent extends jdk.jfr.Event {
+	/** The search depth reached. */
+	@Label("Depth")
+	public int depth;
+	/** Number of positions visited. */
+	@Label("Nodes")
+	public long nodes;
+	/** Positions visited per second. */
+	@Label("Nodes per Second")
+	public long nodesPerSecond;
+	/** Lookups in the transposition table. */
+	@Label("Table Probes")
+	public long tableProbes;
+	/** Lookups which found the position. */
+	@Label("Table Hits")
+	public long tableHits;
+	/** tableHits / tableProbes, 0 without probes. */
+	@Label("Table Hit Rate")
+	public double tableHitRate;
+	/** Lookups in the evaluation cache. */
+	@Label("Evaluation Cache Probes")
+	public long evaluationCacheProbes;
+	/** Lookups which found the position. */
+	@Label("Evaluation Cache Hits")
+	public long evaluationCacheHits;
+	/** evaluationCacheHits / evaluationCacheProbes, 0 without probes. */
+	@Label("Evaluation Cache Hit Rate")
+	public double evaluationCacheHitRate;
+	/** The column chosen. */
+	@Label("Best Column")
+	public int bestColumn;
+
+	/**Fills in the counters of a finished search. Rates are calculated from the event duration, so this has to be
+	 * called after {@link #end()}.
+	 * @param depth       the search depth reached.
+	 * @param nodes       number of positions visited.
+	 * @param tableProbes lookups in the transposition table.
+	 * @param tableHits   lookups which found the position.
+	 * @param bestColumn  the column chosen. */
+	public void set(int depth, long nodes, long tableProbes, long tableHits, int bestColumn) {
+		this.depth = depth;
+		this.nodes = nodes;
+		this.tableProbes = tableProbes;
+		this.tableHits = tableHits;
+		this.bestColumn = bestColumn;
+		tableHitRate = tableProbes == 0 ? 0 : (double) tableHits / tableProbes;
+	}
+
+	/**Fills in the counters of the evaluation cache.
+	 * @param probes lookups in the evaluation cache.
+	 * @param hits   lookups which found the position. */
+	public void setEvaluationCache(long probes, long hits) {
+		evaluationCacheProbes = probes;
+		evaluationCacheHits = hits;
+		evaluationCacheHitRate = probes == 0 ? 0 : (double) hits / probes;
+	}
+
+}
@@ -0,0 +1,31 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**Flight Recorder event for one stone dropped into the board.
+ */
+@Name("fourthewin.Turn")
+@Label("Turn")
+@Category({ "FourTheWin", "Game" })
+@Description("A stone was dropped into the board")
+public class TurnEvent extends jdk.jfr.Event {
+	/** The player who dropped the stone. */
+	@Label("Player")
+	public String player;
+	/** The column of the stone. */
+	@Label("Column")
+	public int column;
+	/** The row the stone landed in. */
+	@Label("Row")
+	public int row;
+	/** Number of stones on the board afterwards. */
+	@Label("Moves")
+	public int moves;
+	/** True if the stone won the game. */
+	@Label("Winning")
+	public boolean winning;
+
+}
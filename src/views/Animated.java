@@ -0,0 +1,12 @@
+package views;
+
+/**A View which can show the frames of an {@link Animation}. Frames are rendered from the {@link AnimationClock} thread.
+ */
+public interface Animated extends View {
+	/**Shows one frame of an animation on top of the current game state.
+	 * @param animation the running animation.
+	 * @param frame     the frame to show, frames may be skipped.
+	 */
+	public void renderFrame(Animation animation, int frame);
+
+}
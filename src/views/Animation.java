@@ -0,0 +1,240 @@
+package views;
+
+import java.util.BitSet;
+
+import data.Board;
+import data.BoardGeometry;
+import data.DataModell;
+import data.Player;
+
+/**
+ * One animation for the Views: a dropping stone, the blinking winning line or the board being emptied. The motion of
+ * every kind is precomputed once as a track of per frame values, so playing an animation only needs a lookup per
+ * frame. The frames are drawn through a {@link StonePainter}, which lets both Views share the same animation.
+ */
+public final class Animation {
+	/** Subdivisions of one display row for smooth movement. */
+	public static final int STEPS = 256;
+
+	/** The different animations. */
+	public enum Kind {
+		DROP, WIN, RESET;
+	}
+
+	/** Seconds a stone needs to fall through the classic board. */
+	private static final double FALL_SECONDS = 0.4;
+	/** Acceleration in display rows per frame squared. */
+	private static final double GRAVITY = 2.0 * BoardGeometry.STANDARD.getRows()
+			/ Math.pow(FALL_SECONDS * AnimationClock.FRAMES_PER_SECOND, 2);
+	/** Frames the winning line is shown or hidden while blinking. */
+	private static final int BLINK_FRAMES = AnimationClock.FRAMES_PER_SECOND / 6;
+	/** How often the winning line blinks. */
+	private static final int BLINKS = 6;
+
+	/** 1 if the winning line is visible in a frame, 0 if not. */
+	private static final int[] WIN_TRACK = new int[2 * BLINKS * BLINK_FRAMES];
+	/** Positions of a falling stone for every distance in display rows, calculated on first use. */
+	private static int[][] fallTracks = new int[BoardGeometry.STANDARD.getRows() + 2][];
+
+	static {
+		for (int frame = 0; frame < WIN_TRACK.length; frame++) {
+			WIN_TRACK[frame] = (frame / BLINK_FRAMES) % 2 == 0 ? 0 : 1;
+		}
+	}
+
+	/** The size of the board. */
+	private final BoardGeometry geometry;
+	/** The kind of animation. */
+	private final Kind kind;
+	/** The precomputed track for this animation. */
+	private final int[] track;
+	/** The player the animation belongs to. */
+	private final Player player;
+	/** Column of the dropped stone. */
+	private final int column;
+	/** Row of the dropped stone. */
+	private final int row;
+	/** The stones falling out for RESET. */
+	private final Board stones;
+	/** The bits of the winning line for WIN. */
+	private final BitSet line;
+
+	/** Use the factory methods. */
+	private Animation(BoardGeometry geometry, Kind kind, int[] track, Player player, int column, int row, Board stones,
+			BitSet line) {
+		this.geometry = geometry;
+		this.kind = kind;
+		this.track = track;
+		this.player = player;
+		this.column = column;
+		this.row = row;
+		this.stones = stones;
+		this.line = line;
+	}
+
+	/**A stone falling from the play stone position into its cell.
+	 * @param geometry the size of the board.
+	 * @param player   the owner of the stone.
+	 * @param column   the column of the stone.
+	 * @param row      the row the stone lands in.
+	 * @return the animation. */
+	public static Animation drop(BoardGeometry geometry, Player player, int column, int row) {
+		return new Animation(geometry, Kind.DROP, fallTrack(geometry.getRows() - row), player, column, row, null, null);
+	}
+
+	/**The winning line blinking.
+	 * @param geometry      the size of the board.
+	 * @param player        the winner.
+	 * @param winningStones the bits of the stones of the winning line, must not be changed afterwards.
+	 * @return the animation. */
+	public static Animation win(BoardGeometry geometry, Player player, BitSet winningStones) {
+		return new Animation(geometry, Kind.WIN, WIN_TRACK, player, -1, -1, null, winningStones);
+	}
+
+	/**All stones falling out of the board.
+	 * @param stones the stones before the board was cleared, must not be changed afterwards.
+	 * @return the animation. */
+	public static Animation reset(Board stones) {
+		BoardGeometry geometry = stones.getGeometry();
+		return new Animation(geometry, Kind.RESET, fallTrack(geometry.getRows() + 1), Player.NOONE, -1, -1, stones,
+				null);
+	}
+
+	/** @return the kind of animation. */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return number of frames to show at {@link AnimationClock#FRAMES_PER_SECOND}. */
+	public int getFrameCount() {
+		return track.length;
+	}
+
+	/** @return the player the animation belongs to. */
+	public Player getPlayer() {
+		return player;
+	}
+
+	/** @return the column of a dropped stone or -1. */
+	public int getColumn() {
+		return column;
+	}
+
+	/** @return the row of a dropped stone or -1. */
+	public int getRow() {
+		return row;
+	}
+
+	/**Tells if a stone of the game state must not be drawn because the animation draws it.
+	 * @param column the column of the cell.
+	 * @param row    the row of the cell.
+	 * @return true if the cell has to be left out. */
+	public boolean hides(int column, int row) {
+		return kind == Kind.DROP && column == this.column && row == this.row;
+	}
+
+	/** @return true if the play stone above the board must not be drawn. */
+	public boolean hidesPlayStone() {
+		return kind != Kind.WIN;
+	}
+
+	/**Draws the moving parts of one frame.
+	 * @param frame   the frame to draw.
+	 * @param painter where to draw. */
+	public void paint(int frame, StonePainter painter) {
+		int value = track[frame];
+		switch (kind) {
+		case DROP:
+			painter.paintStone(player, column, value);
+			break;
+		case WIN:
+			if (value == 0) {
+				for (int bit = line.nextSetBit(0); bit >= 0; bit = line.nextSetBit(bit + 1)) {
+					painter.paintStone(Player.NOONE, geometry.column(bit), displayY(geometry, geometry.row(bit)));
+				}
+			}
+			break;
+		case RESET:
+			for (int column = 0; column < geometry.getColumns(); column++) {
+				for (int row = 0; row < stones.getHeight(column); row++) {
+					painter.paintStone(stones.getStone(column, row), column, displayY(geometry, row) + value);
+				}
+			}
+			break;
+		}
+	}
+
+	/**Draws the game state and, if given, one frame of an animation on top.
+	 * @param data      the game state.
+	 * @param board     a board of the same geometry to copy the stones into.
+	 * @param animation the running animation or null.
+	 * @param frame     the frame of the animation.
+	 * @param painter   where to draw. */
+	public static void paintBoard(DataModell data, Board board, Animation animation, int frame, StonePainter painter) {
+		Player playStone;
+		int playStoneColumn;
+		synchronized (data) {
+			data.copyBoard(board);
+			playStone = data.isFinished() ? Player.NOONE : data.getCurrentPlayer();
+			playStoneColumn = data.getPlayStoneColumn();
+		}
+		paintBoard(board, playStone, playStoneColumn, animation, frame, painter);
+	}
+
+	/**Draws a game state and, if given, one frame of an animation on top. Used to draw states which were not played
+	 * yet.
+	 * @param board           the stones.
+	 * @param playStone       the color of the play stone, NOONE to leave it out.
+	 * @param playStoneColumn the column of the play stone.
+	 * @param animation       the running animation or null.
+	 * @param frame           the frame of the animation.
+	 * @param painter         where to draw. */
+	public static void paintBoard(Board board, Player playStone, int playStoneColumn, Animation animation, int frame,
+			StonePainter painter) {
+		BoardGeometry geometry = board.getGeometry();
+		for (int column = 0; column < geometry.getColumns(); column++) {
+			for (int row = 0; row < board.getHeight(column); row++) {
+				if (animation == null || !animation.hides(column, row)) {
+					painter.paintStone(board.getStone(column, row), column, displayY(geometry, row));
+				}
+			}
+		}
+		if (playStone != Player.NOONE && (animation == null || !animation.hidesPlayStone())) {
+			painter.paintStone(playStone, playStoneColumn, 0);
+		}
+		if (animation != null) {
+			animation.paint(frame, painter);
+		}
+	}
+
+	/**Returns where a row is drawn.
+	 * @param geometry the size of the board.
+	 * @param row      the row, 0 is the bottom row.
+	 * @return the vertical position in 1/STEPS display rows. */
+	public static int displayY(BoardGeometry geometry, int row) {
+		return (geometry.getRows() - row) * STEPS;
+	}
+
+	/**Returns the free fall over a distance, the last frame ends exactly at the distance. Every track is calculated
+	 * once and shared.
+	 * @param distance the distance in display rows.
+	 * @return the position for every frame in 1/STEPS display rows. */
+	private static synchronized int[] fallTrack(int distance) {
+		if (distance >= fallTracks.length) {
+			int[][] grown = new int[distance + 1][];
+			System.arraycopy(fallTracks, 0, grown, 0, fallTracks.length);
+			fallTracks = grown;
+		}
+		if (fallTracks[distance] == null) {
+			int frames = (int) Math.ceil(Math.sqrt(2 * distance / GRAVITY)) + 1;
+			int[] track = new int[frames];
+			for (int frame = 0; frame < frames; frame++) {
+				double fallen = Math.min(distance, GRAVITY * frame * frame / 2);
+				track[frame] = (int) Math.round(fallen * STEPS);
+			}
+			fallTracks[distance] = track;
+		}
+		return fallTracks[distance];
+	}
+
+}
@@ -0,0 +1,181 @@
+package views;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import data.Board;
+import data.DataModell;
+import data.Player;
+
+/**
+ * Plays the animations of all {@link Animated} Views with a fixed frame rate on its own thread. The clock watches the
+ * DataModell like any other View, so it has to be added to it before the Views it animates. Frame numbers are derived
+ * from the start time of the animation: if rendering falls behind, frames are skipped instead of the animation
+ * slowing down. The time needed to render and send a frame is measured and frames are started that much earlier.
+ */
+public class AnimationClock implements View {
+	/** Frames shown per second. */
+	public static final int FRAMES_PER_SECOND = 30;
+	/** Duration of one frame. */
+	private static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+
+	/** The Data to watch for changes. */
+	private final DataModell data;
+	/** The Views to animate. */
+	private final List<Animated> targets = new CopyOnWriteArrayList<>();
+	/** Animations waiting to be played. */
+	private final Queue<Animation> pending = new ConcurrentLinkedQueue<>();
+	/** Number of animations waiting or playing. */
+	private final AtomicInteger active = new AtomicInteger();
+	/** The thread playing the animations. */
+	private final Thread thread;
+	/** False once the clock was closed. */
+	private volatile boolean running = true;
+
+	/** Average time to render one frame in all targets. Only used by the clock thread. */
+	private long renderNanos;
+	/** Number of frames skipped because rendering was late. */
+	private volatile long skippedFrames;
+
+	/** Number of stones seen on the last update. */
+	private int seenMoves;
+	/** Winner seen on the last update. */
+	private Player seenWinner = Player.NOONE;
+	/** Stones seen on the last update. */
+	private final Board seenStones;
+
+	/**Creates and starts the clock.
+	 * @param data The data modell to watch. The clock has to be added to it as a View. */
+	public AnimationClock(DataModell data) {
+		this.data = data;
+		seenStones = Board.create(data.getGeometry());
+		thread = new Thread(this::run, "AnimationClock");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**Adds a View to animate.
+	 * @param target the View. */
+	public void addTarget(Animated target) {
+		targets.add(target);
+	}
+
+	/**Tells the Views if they should leave drawing to the clock.
+	 * @return true while an animation is waiting or playing. */
+	public boolean isAnimating() {
+		return active.get() > 0;
+	}
+
+	/** @return number of frames skipped so far. */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	/**Queues an animation. It is played after all animations queued before.
+	 * @param animation the animation to play. */
+	public void play(Animation animation) {
+		active.incrementAndGet();
+		pending.add(animation);
+		LockSupport.unpark(thread);
+	}
+
+	/** Looks for changes in the game state which need an animation. */
+	@Override
+	public synchronized void update() {
+		Animation drop = null;
+		Animation finish = null;
+		synchronized (data) {
+			int moves = data.getMoves();
+			Player winner = data.getWinner();
+			if (moves == seenMoves + 1) {
+				drop = Animation.drop(data.getGeometry(), data.getStone(data.getLastColumn(), data.getLastRow()),
+						data.getLastColumn(), data.getLastRow());
+			} else if (moves < seenMoves) {
+				drop = Animation.reset(seenStones.copy());
+			}
+			if (winner != Player.NOONE && seenWinner == Player.NOONE) {
+				finish = Animation.win(data.getGeometry(), winner, data.getWinningStones());
+			}
+			seenMoves = moves;
+			seenWinner = winner;
+			data.copyBoard(seenStones);
+		}
+		if (drop != null) {
+			play(drop);
+		}
+		if (finish != null) {
+			play(finish);
+		}
+	}
+
+	/** Stops the clock thread. */
+	public void close() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	/** The clock thread. Waits for animations and plays them one after another. */
+	private void run() {
+		while (running) {
+			Animation animation = pending.poll();
+			if (animation == null) {
+				LockSupport.park(this);
+				continue;
+			}
+			play(animation, System.nanoTime());
+			if (active.decrementAndGet() == 0) {
+				// the Views skipped their updates while animating
+				for (Animated target : targets) {
+					target.update();
+				}
+			}
+		}
+	}
+
+	/**Plays one animation. The last frame is always shown.
+	 * @param animation the animation.
+	 * @param start     the time of the first frame. */
+	private void play(Animation animation, long start) {
+		int lastFrame = animation.getFrameCount() - 1;
+		int shown = -1;
+		while (running) {
+			long now = System.nanoTime();
+			int frame = (int) Math.min(lastFrame, (now + renderNanos - start) / FRAME_NANOS);
+			if (frame > shown) {
+				if (frame > shown + 1) {
+					skippedFrames += frame - shown - 1;
+				}
+				render(animation, frame);
+				shown = frame;
+			}
+			if (shown == lastFrame) {
+				return;
+			}
+			long sleep = start + (shown + 1) * FRAME_NANOS - renderNanos - System.nanoTime();
+			if (sleep > 0) {
+				LockSupport.parkNanos(this, sleep);
+			}
+		}
+	}
+
+	/**Renders a frame in all targets and measures the time needed.
+	 * @param animation the animation.
+	 * @param frame     the frame to render. */
+	private void render(Animation animation, int frame) {
+		long begin = System.nanoTime();
+		for (Animated target : targets) {
+			try {
+				target.renderFrame(animation, frame);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		long needed = Math.min(FRAME_NANOS, System.nanoTime() - begin);
+		renderNanos += (needed - renderNanos) / 8;
+	}
+
+}
@@ -1,91 +1,218 @@
 package views;
 
+import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
+import data.Board;
+import data.BoardGeometry;
 import data.DataModell;
+import data.Player;
+import views.SpriteAtlas.Sprite;
 
 /** This is the Computer View.
  * @author Mindxxxd. 19.02.2020. */
-public class ComputerView implements View {
-	/** The graphics path for the yellow player. */
-	private static final String YELLOW_STONE_PATH = "src/views/yellowStone.png";
-	/** The graphics path for the red player. */
-	private static final String RED_STONE_PATH = "src/views/redStone.png";
-	/** The Graphics path for the Board itself. */
-	private static final String BOARD_GRAPHICS_PATH = "src/views/playboard.png";
-	/** Graphic for yellow player. */
-	private static Image yellowStoneImage;
-	/** Graphic for red player. */
-	private static Image redStoneImage;
-	/** graphic for board itself. */
-	private static Image boardImage;
+public class ComputerView implements Animated, StonePainter {
+	/** Color of the board drawn for other than the classic geometry. */
+	private static final Color BOARD_COLOR = new Color(0, 0, 255);
+	/** The board and the stones in the size they are drawn in, null until loaded. Only used by the Swing thread. */
+	private SpriteAtlas sprites;
 
 	/** The Data. */
 	private final DataModell data;
 	/** The display container to work with. */
 	private final JFrame gameFrame;
+	/** The clock playing the animations. */
+	private final AnimationClock clock;
+	/** The image the board is drawn into. */
+	private final BufferedImage actualPlayboard;
+	/** The label showing the image. */
+	private final JLabel label;
+	/** Width of one cell. */
+	private final int cellWidth;
+	/** Height of one cell. */
+	private final int cellHeight;
+	/** The stones while drawing, only used by the Swing thread. */
+	private final Board board;
+	/** Graphics of the image while drawing. */
+	private Graphics graphics;
 
-	/** Constructor to load graphics and firstly update the View.
-	 * @param data    The data modell to fetch data from.
-	 * @param display The display to draw stuff on. */
-	public ComputerView(DataModell data, JFrame gameFrame) {
+	/** The animation to draw next, null for the plain game state. */
+	private Animation animation;
+	/** The frame of the animation to draw next. */
+	private int frame;
+	/** True while a repaint is waiting on the Swing thread. */
+	private final AtomicBoolean repaintPending = new AtomicBoolean();
+	/** Draws the latest state on the Swing thread, reused for every repaint. */
+	private final Runnable repaint = this::repaint;
+
+	/** Constructor to prepare the graphics and firstly update the View. The View stays empty until the graphics are
+	 * loaded.
+	 * @param data      The data modell to fetch data from.
+	 * @param gameFrame The display to draw stuff on.
+	 * @param clock     The clock playing the animations.
+	 * @param loading   The graphics, loading in the background. If they fail to load, board and stones are drawn. */
+	public ComputerView(DataModell data, JFrame gameFrame, AnimationClock clock,
+			CompletableFuture<SpriteAtlas> loading) {
 		this.data = data;
 		this.gameFrame = gameFrame;
-		if (yellowStoneImage == null || redStoneImage == null || boardImage == null) {
-			try {
-				yellowStoneImage = ImageIO.read(new File(YELLOW_STONE_PATH));
-				yellowStoneImage = yellowStoneImage.getScaledInstance(gameFrame.getWidth() / 7,
-						gameFrame.getHeight() / 7, 0);
-				redStoneImage = ImageIO.read(new File(RED_STONE_PATH));
-				redStoneImage = redStoneImage.getScaledInstance(gameFrame.getWidth() / 7, gameFrame.getHeight() / 7, 0);
-				boardImage = ImageIO.read(new File(BOARD_GRAPHICS_PATH));
-				boardImage = boardImage.getScaledInstance(gameFrame.getWidth(), gameFrame.getHeight(), 0);
-
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.exit(-1);
-			}
-		}
+		this.clock = clock;
+		BoardGeometry geometry = data.getGeometry();
+		cellWidth = gameFrame.getWidth() / geometry.getColumns();
+		cellHeight = gameFrame.getHeight() / (geometry.getRows() + 1);
+		board = Board.create(geometry);
+
+		// panel stuff, created once and repainted on every change
+		JPanel panel = new JPanel();
+		panel.setSize(gameFrame.getWidth(), gameFrame.getHeight());
+		panel.setLayout(new GridLayout(1, 1));
+		actualPlayboard = new BufferedImage(gameFrame.getWidth(), gameFrame.getHeight(), BufferedImage.TYPE_INT_RGB);
+		label = new JLabel(new ImageIcon(actualPlayboard));
+		label.setVisible(true);
+		panel.add(label);
+		gameFrame.setContentPane(panel);
 
-		update();
+		// scaled and packed again in the background, then drawn for the first time
+		loading.handle((loaded, failure) -> {
+			if (failure != null) {
+				failure.printStackTrace();
+			}
+			return scale(loaded, geometry);
+		}).thenAccept(scaled -> SwingUtilities.invokeLater(() -> {
+			sprites = scaled;
+			update();
+		}));
 	}
 
-	/** Calculates the new computer graphic and updates the computer view. */
+	/** Calculates the new computer graphic and updates the computer view, unless the clock is animating. */
 	@Override
 	public void update() {
+		if (clock.isAnimating()) {
+			return;
+		}
+		show(null, 0);
+	}
 
-		// panel stuff
-		JPanel panel = new JPanel();
-		panel.setSize(gameFrame.getWidth(), gameFrame.getHeight());
-		panel.setLayout(new GridLayout(1, 1));
+	/** Shows a frame of an animation. */
+	@Override
+	public void renderFrame(Animation animation, int frame) {
+		show(animation, frame);
+	}
 
-		// draws playboard
-		BufferedImage actualPlayboard = new BufferedImage(gameFrame.getWidth(), gameFrame.getHeight(),
-				BufferedImage.TYPE_INT_RGB);
-		Graphics graphics = actualPlayboard.getGraphics();
-		graphics.drawImage(boardImage, 0, 0, null);
+	/** Remembers what to draw and asks the Swing thread to draw it. Frames arriving before the Swing thread got to
+	 * the last one replace it.
+	 * @param animation the animation or null.
+	 * @param frame     the frame of the animation. */
+	private void show(Animation animation, int frame) {
+		synchronized (this) {
+			this.animation = animation;
+			this.frame = frame;
+		}
+		if (repaintPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(repaint);
+		}
+	}
 
-		// CODE NOW DRAW PLAYSTONES!! THIS IS ONLY FOR TESTING!!
-		double yelX = 1400.0 / 7 * 3, yelY = 1400.0 / 7 * 3, redX = 1400.0 / 7 * 4, redY = 1400.0 / 7 * 5;
-		graphics.drawImage(yellowStoneImage, (int) yelX * 500 / 1400, (int) yelY * 500 / 1400, null);
-		graphics.drawImage(redStoneImage, (int) redX * 500 / 1400, (int) redY * 500 / 1400, null);
+	/** Draws the latest frame into the image. Runs on the Swing thread. */
+	private void repaint() {
+		repaintPending.set(false);
+		if (sprites == null) {
+			return;
+		}
+		Animation animation;
+		int frame;
+		synchronized (this) {
+			animation = this.animation;
+			frame = this.frame;
+		}
+		graphics = actualPlayboard.getGraphics();
+		sprites.draw(graphics, Sprite.BOARD, 0, 0);
+		Animation.paintBoard(data, board, animation, frame, this);
+		graphics.dispose();
+		label.repaint();
+	}
 
-		// add everything to panel
-		ImageIcon icon = new ImageIcon(actualPlayboard);
-		JLabel label = new JLabel(icon);
-		label.setVisible(true);
-		panel.add(label);
-		gameFrame.setContentPane(panel);
+	/** Packs the graphics in the size they are drawn in. Graphics which are missing are drawn.
+	 * @param loaded   the graphics or null if they failed to load.
+	 * @param geometry the size of the board.
+	 * @return the graphics. */
+	private SpriteAtlas scale(SpriteAtlas loaded, BoardGeometry geometry) {
+		Map<Sprite, Image> images = new EnumMap<>(Sprite.class);
+		if (loaded != null) {
+			images.put(Sprite.YELLOW_STONE, loaded.scale(Sprite.YELLOW_STONE, cellWidth, cellHeight));
+			images.put(Sprite.RED_STONE, loaded.scale(Sprite.RED_STONE, cellWidth, cellHeight));
+		} else {
+			images.put(Sprite.YELLOW_STONE, drawStone(Color.YELLOW));
+			images.put(Sprite.RED_STONE, drawStone(Color.RED));
+		}
+		if (loaded != null && geometry.equals(BoardGeometry.STANDARD)) {
+			images.put(Sprite.BOARD, loaded.scale(Sprite.BOARD, gameFrame.getWidth(), gameFrame.getHeight()));
+		} else {
+			images.put(Sprite.BOARD, drawBoard(geometry));
+		}
+		return SpriteAtlas.pack(images);
+	}
+
+	/** Draws a stone, if its graphic is missing.
+	 * @param color the color of the stone.
+	 * @return the stone. */
+	private Image drawStone(Color color) {
+		BufferedImage image = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics graphics = image.getGraphics();
+		graphics.setColor(color);
+		graphics.fillOval(cellWidth / 10, cellHeight / 10, cellWidth * 8 / 10, cellHeight * 8 / 10);
+		graphics.dispose();
+		return image;
+	}
+
+	/** Draws a board for geometries the board graphic was not made for, or if it is missing: a blue board with round
+	 * holes below the row of the play stone.
+	 * @param geometry the size of the board.
+	 * @return the board. */
+	private Image drawBoard(BoardGeometry geometry) {
+		BufferedImage image = new BufferedImage(gameFrame.getWidth(), gameFrame.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics graphics = image.getGraphics();
+		graphics.setColor(BOARD_COLOR);
+		graphics.fillRect(0, cellHeight, cellWidth * geometry.getColumns(), cellHeight * geometry.getRows());
+		graphics.setColor(Color.BLACK);
+		for (int column = 0; column < geometry.getColumns(); column++) {
+			for (int row = 1; row <= geometry.getRows(); row++) {
+				graphics.fillOval(column * cellWidth + cellWidth / 10, row * cellHeight + cellHeight / 10,
+						cellWidth * 8 / 10, cellHeight * 8 / 10);
+			}
+		}
+		graphics.dispose();
+		return image;
+	}
+
+	/** Draws a stone into the image. NOONE draws the empty board over the cell. */
+	@Override
+	public void paintStone(Player player, int column, int y) {
+		int x = column * cellWidth;
+		int top = (int) ((long) y * cellHeight / Animation.STEPS);
+		switch (player) {
+		case YELLOW:
+			sprites.draw(graphics, Sprite.YELLOW_STONE, x, top);
+			break;
+		case RED:
+			sprites.draw(graphics, Sprite.RED_STONE, x, top);
+			break;
+		default:
+			sprites.draw(graphics, Sprite.BOARD, x, top, cellWidth, cellHeight, x, top);
+			break;
+		}
 	}
 
 }
@@ -1,21 +1,88 @@
 package views;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import data.Board;
+import data.BoardGeometry;
 import data.DataModell;
+import data.Player;
+import lighthouse.ILighthouseInputListener;
 import lighthouse.LighthouseDisplay;
+import metrics.LatencyTracer;
 
 /** COMMENT
  * @author Mindxxxd. 20.02.2020. */
-public class LighthouseView implements View {
+public class LighthouseView implements Animated {
+	/** Width of the lighthouse in windows. */
+	private static final int WIDTH = 28;
+	/** Height of the lighthouse in windows. */
+	private static final int HEIGHT = 14;
+
 	/** The Lighthouse Display to communicate with. */
 	private LighthouseDisplay display;
 	/** The Data where to fetch informations from. */
 	private final DataModell dataModell;
+	/** The size of the board. */
+	private final BoardGeometry geometry;
+	/** The clock playing the animations. */
+	private final AnimationClock clock;
+	/** Windows per column of the board. */
+	private final int columnWidth;
+	/** Windows per row of the board, including the blue line between rows. */
+	private final int rowHeight;
+	/** First window of the board from the left, the board is centered. */
+	private final int left;
+	/** First window of the board from the top, the board is centered. */
+	private final int top;
+	/** The empty playboard, calculated once. */
+	private final byte[] playboard = new byte[HEIGHT * WIDTH * 3];
+	/** Draws the frames which are sent right away. */
+	private final FramePainter painter = new FramePainter(new byte[HEIGHT * WIDTH * 3]);
+	/** The stones while drawing a frame. */
+	private final Board drawBoard;
+	/** The stones while checking for a prepared drop, only used by the clock thread. */
+	private final Board frameBoard;
+	/** The stones while updating, guarded by this. */
+	private final Board stateBoard;
+
+	/** Prepares the frames of the next drop while the player is choosing a column. */
+	private final ExecutorService preparer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "LighthouseView-prepare");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Draws the prepared frames, only used by the preparer. */
+	private final FramePainter preparePainter = new FramePainter(null);
+	/** The landed board for every column, only used by the preparer. */
+	private final byte[][] landedPixels;
+	/** The frames prepared for the current game state, null if there are none. */
+	private volatile PreparedDrops prepared;
+	/** The last state handed to the preparer. */
+	private Board requestedBoard;
 
-	/** Constructor for Lighthouse. Connects and initializes first display stuff. */
-	public LighthouseView(DataModell dataModell) {
+	/** Constructor for Lighthouse. Connects and initializes first display stuff.
+	 * @param dataModell the data to show.
+	 * @param clock      the clock playing the animations.
+	 * @throws IllegalArgumentException if the board does not fit on the lighthouse. */
+	public LighthouseView(DataModell dataModell, AnimationClock clock) {
 		this.dataModell = dataModell;
+		this.clock = clock;
+		geometry = dataModell.getGeometry();
+		columnWidth = WIDTH / geometry.getColumns();
+		rowHeight = HEIGHT / (geometry.getRows() + 1);
+		if (columnWidth == 0 || rowHeight == 0) {
+			throw new IllegalArgumentException("A board of " + geometry + " does not fit on the lighthouse.");
+		}
+		left = (WIDTH - columnWidth * geometry.getColumns()) / 2;
+		top = (HEIGHT - rowHeight * (geometry.getRows() + 1)) / 2;
+		getPlayboardPxl(playboard);
+		drawBoard = Board.create(geometry);
+		frameBoard = Board.create(geometry);
+		stateBoard = Board.create(geometry);
+		landedPixels = new byte[geometry.getColumns()][HEIGHT * WIDTH * 3];
+
 		connect();
 		send(startDisplay());
 		try {
@@ -26,56 +93,208 @@ public class LighthouseView implements View {
 		update();
 	}
 
-	/** COMMENT */
+	/** Draws the game state and sends it, unless the clock is animating. Starts preparing the frames for the next
+	 * drop if the stones changed. Synchronized like {@link #draw}, Views are updated from several threads. */
 	@Override
-	public void update() {
-		byte[] data = new byte[14 * 28 * 3];
-		data = getPlayboardPxl(data);
-		data = getYellowPxl(data);
-		data = getRedPxl(data);
-		send(data);
+	public synchronized void update() {
+		Board board = stateBoard;
+		Player player;
+		int playStoneColumn;
+		boolean finished;
+		synchronized (dataModell) {
+			dataModell.copyBoard(board);
+			player = dataModell.getCurrentPlayer();
+			playStoneColumn = dataModell.getPlayStoneColumn();
+			finished = dataModell.isFinished();
+		}
+		if (!finished) {
+			requestPrepare(board, player);
+		}
+		if (clock.isAnimating()) {
+			return;
+		}
 
+		// the landed frame of the last drop is ready if the play stone was not moved yet
+		PreparedDrops drops = prepared;
+		if (!finished && drops != null && drops.player != player && drops.hasDropped(playStoneColumn, board)) {
+			LatencyTracer.mark(LatencyTracer.Stage.COMPOSE);
+			sendEncoded(drops.landedFrames[playStoneColumn]);
+			return;
+		}
+		draw(null, 0);
 	}
 
-	/** Draws the Playboard in the lighthouse data.
-	 * @param data the blanc dataset for display.
-	 * @return the data set containing the playboard */
-	private byte[] getPlayboardPxl(byte[] data) {
-		for (int i = 0; i < data.length; i++) {
-			if ((i / (3 * 28)) % 2 == 1) { // every second row
-				if (i % 3 == 2) { // coloring blue
-					data[i] = (byte) 255;
+	/** Draws a frame of an animation and sends it. Frames of a drop are taken from the prepared frames if the drop
+	 * was prepared. The preparer may already work on the next state, so the frames prepared before are checked too. */
+	@Override
+	public void renderFrame(Animation animation, int frame) {
+		if (animation.getKind() == Animation.Kind.DROP) {
+			dataModell.copyBoard(frameBoard);
+			for (PreparedDrops drops = prepared; drops != null; drops = drops.previous) {
+				if (drops.player == animation.getPlayer() && drops.hasDropped(animation.getColumn(), frameBoard)) {
+					LatencyTracer.mark(LatencyTracer.Stage.COMPOSE);
+					sendEncoded(drops.dropFrames[animation.getColumn()][frame]);
+					return;
 				}
-			} else if ((((i / 3) % 28) % 4 == 0 || ((i / 3) % 28) % 4 == 3) && i / (3 * 14) > 1) {
-				// every first and 4th out of 4 columns after row 1
-				if (i % 3 == 2) { // coloring blue
-					data[i] = (byte) 255;
+			}
+		}
+		draw(animation, frame);
+	}
+
+	/** Draws the game state with an optional animation frame into the frame buffer and sends it.
+	 * @param animation the animation or null.
+	 * @param frame     the frame of the animation. */
+	private synchronized void draw(Animation animation, int frame) {
+		painter.clear();
+		Animation.paintBoard(dataModell, drawBoard, animation, frame, painter);
+		LatencyTracer.mark(LatencyTracer.Stage.COMPOSE);
+		send(painter.pixels);
+	}
+
+	/** Hands a game state to the preparer unless it was handed over before. Only a changed state is copied.
+	 * @param board  the stones, copied if they are handed over.
+	 * @param player the player to drop the next stone. */
+	private synchronized void requestPrepare(Board board, Player player) {
+		if (board.equals(requestedBoard)) {
+			return;
+		}
+		Board requested = board.copy();
+		requestedBoard = requested;
+		preparer.execute(() -> prepare(requested, player));
+	}
+
+	/** Draws and encodes every frame of the drop into each column which is not full yet, and the board after the
+	 * stone landed. Runs on the preparer thread.
+	 * @param board  the stones.
+	 * @param player the player to drop the next stone. */
+	private void prepare(Board board, Player player) {
+		PreparedDrops drops = new PreparedDrops(player, prepared, geometry.getColumns());
+		Player next = player == Player.YELLOW ? Player.RED : Player.YELLOW;
+		try {
+			for (int column = 0; column < geometry.getColumns(); column++) {
+				if (!board.canDrop(column)) {
+					continue;
 				}
+				Board dropped = board.copy();
+				int row = dropped.drop(player, column);
+
+				Animation drop = Animation.drop(geometry, player, column, row);
+				byte[][] frames = new byte[drop.getFrameCount()][];
+				preparePainter.pixels = landedPixels[column];
+				for (int frame = 0; frame < frames.length; frame++) {
+					preparePainter.clear();
+					Animation.paintBoard(dropped, Player.NOONE, column, drop, frame, preparePainter);
+					frames[frame] = display.encodeImage(preparePainter.pixels);
+				}
+				preparePainter.clear();
+				Animation.paintBoard(dropped, next, column, null, 0, preparePainter);
+
+				drops.droppedBoards[column] = dropped;
+				drops.dropFrames[column] = frames;
+				drops.landedFrames[column] = display.encodeImage(preparePainter.pixels);
 			}
+			prepared = drops;
+		} catch (IOException | RuntimeException e) {
+			// the frames are drawn the normal way then
+			e.printStackTrace();
 		}
-		return data;
 	}
 
-	/** COMMENT
-	 * @param data
-	 * @return */
-	private byte[] getYellowPxl(byte[] data) {
-		data[28*4*3+5*3+0] = (byte) 255;
-		data[28*4*3+5*3+1] = (byte) 255;
-		data[28*4*3+6*3+0] = (byte) 255;
-		data[28*4*3+6*3+1] = (byte) 255;
-		
-		// CODE Yellow lighthouse player
-		return data;
+	/** The encoded frames of every possible drop from one game state. */
+	private static final class PreparedDrops {
+		/** The player dropping the stone. */
+		private final Player player;
+		/** The frames prepared before these, kept until the drop they were prepared for is over. */
+		private PreparedDrops previous;
+		/** The stones after the drop into each column. */
+		private final Board[] droppedBoards;
+		/** All frames of the drop animation into each column, null for full columns. */
+		private final byte[][][] dropFrames;
+		/** The board after the stone landed in each column with the next play stone above it. */
+		private final byte[][] landedFrames;
+
+		private PreparedDrops(Player player, PreparedDrops previous, int columns) {
+			this.player = player;
+			this.previous = previous;
+			if (previous != null) {
+				// only keep one generation
+				previous.previous = null;
+			}
+			droppedBoards = new Board[columns];
+			dropFrames = new byte[columns][][];
+			landedFrames = new byte[columns][];
+		}
+
+		/** Tells if the stones are the result of the prepared drop into a column. */
+		private boolean hasDropped(int column, Board board) {
+			return dropFrames[column] != null && droppedBoards[column].equals(board);
+		}
+	}
+
+	/** Draws stones into a lighthouse image. */
+	private final class FramePainter implements StonePainter {
+		/** The image to draw into. */
+		private byte[] pixels;
+
+		private FramePainter(byte[] pixels) {
+			this.pixels = pixels;
+		}
+
+		/** Resets the image to the empty playboard. */
+		private void clear() {
+			System.arraycopy(playboard, 0, pixels, 0, playboard.length);
+		}
+
+		/** Draws a stone into the image. Stones below the lighthouse are left out. */
+		@Override
+		public void paintStone(Player player, int column, int y) {
+			int row = top + (y * rowHeight + Animation.STEPS / 2) / Animation.STEPS;
+			if (row < 0 || row >= HEIGHT) {
+				return;
+			}
+			byte red = 0, green = 0;
+			if (player == Player.YELLOW) {
+				red = (byte) 255;
+				green = (byte) 255;
+			} else if (player == Player.RED) {
+				red = (byte) 255;
+			}
+			// the stone fills the windows between the blue column borders
+			int border = columnWidth >= 3 ? 1 : 0;
+			int x0 = left + column * columnWidth;
+			for (int x = x0 + border; x < x0 + columnWidth - border; x++) {
+				int i = (row * WIDTH + x) * 3;
+				pixels[i] = red;
+				pixels[i + 1] = green;
+				pixels[i + 2] = 0;
+			}
+		}
 	}
 
-	/** COMMENT
-	 * @param data
-	 * @return */
-	private byte[] getRedPxl(byte[] data) {
-		data[28*6*3+5*3+0] = (byte) 255;
-		data[28*6*3+6*3+0] = (byte) 255;
-		// CODE Red lighthouse player
+	/** Draws the Playboard in the lighthouse data: blue lines between the rows and blue borders around the columns,
+	 * except for the row of the play stone.
+	 * @param data the blanc dataset for display.
+	 * @return the data set containing the playboard */
+	private byte[] getPlayboardPxl(byte[] data) {
+		int boardWidth = columnWidth * geometry.getColumns();
+		int boardHeight = rowHeight * (geometry.getRows() + 1);
+		for (int y = top; y < top + boardHeight; y++) {
+			for (int x = left; x < left + boardWidth; x++) {
+				int inRow = (y - top) % rowHeight;
+				int inColumn = (x - left) % columnWidth;
+				boolean blue;
+				if (inRow != 0) { // the lines between the rows
+					blue = true;
+				} else if (y - top < rowHeight) { // the row of the play stone
+					blue = false;
+				} else { // first and last window of every column
+					blue = columnWidth >= 3 && (inColumn == 0 || inColumn == columnWidth - 1);
+				}
+				if (blue) {
+					data[(y * WIDTH + x) * 3 + 2] = (byte) 255;
+				}
+			}
+		}
 		return data;
 	}
 
@@ -99,7 +318,8 @@ public class LighthouseView implements View {
 	private void connect() {
 		// Try connecting to the display
 		try {
-			display = LighthouseDisplay.getDisplay();
+			// frames are mostly black and blue runs, compression saves most of the bandwidth
+			display = LighthouseDisplay.getDisplay(LighthouseDisplay.DEFAULT_URI, false, 0, true);
 			display.setUsername("Mindxxxd");
 			display.setToken("API-TOK_27sP-dGnx-r8UK-rs11-+E9g");
 		} catch (Exception e) {
@@ -120,8 +340,27 @@ public class LighthouseView implements View {
 		}
 	}
 
+	/** Sends a frame encoded by {@link LighthouseDisplay#encodeImage(byte[])}.
+	 * @param packet the encoded frame. */
+	private void sendEncoded(byte[] packet) {
+		try {
+			display.sendEncodedImage(packet);
+		} catch (IOException e) {
+			System.out.println("Connection failed: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/** Lets a listener receive the key presses on the lighthouse.
+	 * @param listener the listener, called from the receiving thread of the connection. */
+	public void addInputListener(ILighthouseInputListener listener) {
+		display.addButtonListener(listener);
+		display.enableKeyInputs();
+	}
+
 	/** closes dataconnection to the lighthouse on closeup. */
 	public void close() {
+		preparer.shutdownNow();
 		display.close();
 	}
 
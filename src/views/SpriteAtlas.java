@@ -0,0 +1,348 @@
+package views;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * All graphics of a View packed into one image, so drawing a frame reads from one image only. The graphics are loaded
+ * from the classpath next to this class, so the game runs from any working directory and from a jar.
+ * {@link #load(Path)} decodes the PNGs in parallel in the background; the packed pixels can be kept in a raw cache
+ * file, which later starts read instead of decoding. The cache is checked against the size and date of the PNGs and
+ * rewritten if they changed.
+ */
+public final class SpriteAtlas {
+	/** The graphics. */
+	public enum Sprite {
+		/** The classic 7x6 board. */
+		BOARD("playboard.png"),
+		/** A stone of the yellow player. */
+		YELLOW_STONE("yellowStone.png"),
+		/** A stone of the red player. */
+		RED_STONE("redStone.png");
+
+		/** The resource name next to SpriteAtlas. */
+		private final String resource;
+
+		/** @param resource the resource name next to SpriteAtlas. */
+		Sprite(String resource) {
+			this.resource = resource;
+		}
+	}
+
+	/** First int of a cache file, "FTWA". */
+	private static final int CACHE_MAGIC = 0x46545741;
+	/** Version of the cache file layout. */
+	private static final int CACHE_VERSION = 1;
+	/** Empty pixels between the sprites, so scaling one does not blend in its neighbours. */
+	private static final int PADDING = 1;
+
+	/** The packed image. */
+	private final BufferedImage image;
+	/** Where every sprite is in the image, null for sprites not packed. */
+	private final Map<Sprite, Rectangle> bounds;
+
+	/**Creates an atlas.
+	 * @param image  the packed image.
+	 * @param bounds where every sprite is in the image. */
+	private SpriteAtlas(BufferedImage image, Map<Sprite, Rectangle> bounds) {
+		this.image = image;
+		this.bounds = bounds;
+	}
+
+	/**Starts loading all sprites in the background: from the cache file if it is up to date, otherwise by decoding
+	 * the PNGs in parallel, after which the cache file is written.
+	 * @param cache the cache file, null for none.
+	 * @return the atlas once loaded, completes exceptionally with an IOException if a PNG is missing or broken. */
+	public static CompletableFuture<SpriteAtlas> load(Path cache) {
+		return CompletableFuture.supplyAsync(SpriteAtlas::resources).thenCompose(resources -> {
+			if (cache != null) {
+				SpriteAtlas cached = readCache(cache, resources);
+				if (cached != null) {
+					return CompletableFuture.completedFuture(cached);
+				}
+			}
+			Map<Sprite, CompletableFuture<BufferedImage>> decoding = new EnumMap<>(Sprite.class);
+			for (Sprite sprite : Sprite.values()) {
+				decoding.put(sprite, CompletableFuture.supplyAsync(() -> decode(resources.get(sprite))));
+			}
+			CompletableFuture<SpriteAtlas> atlas = CompletableFuture
+					.allOf(decoding.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+						Map<Sprite, Image> images = new EnumMap<>(Sprite.class);
+						decoding.forEach((sprite, future) -> images.put(sprite, future.join()));
+						return pack(images);
+					});
+			if (cache != null) {
+				atlas.thenAcceptAsync(loaded -> loaded.writeCache(cache, resources));
+			}
+			return atlas;
+		});
+	}
+
+	/**Packs images into one atlas, in shelves of sprites from the tallest to the lowest.
+	 * @param images the images of the sprites, sprites missing are not packed.
+	 * @return the atlas. */
+	public static SpriteAtlas pack(Map<Sprite, ? extends Image> images) {
+		List<Sprite> sprites = new ArrayList<>(images.keySet());
+		sprites.sort((a, b) -> images.get(b).getHeight(null) - images.get(a).getHeight(null));
+		int width = 0;
+		for (Sprite sprite : sprites) {
+			width = Math.max(width, images.get(sprite).getWidth(null));
+		}
+
+		Map<Sprite, Rectangle> bounds = new EnumMap<>(Sprite.class);
+		int x = 0;
+		int y = 0;
+		int shelfHeight = 0;
+		for (Sprite sprite : sprites) {
+			Image spriteImage = images.get(sprite);
+			int spriteWidth = spriteImage.getWidth(null);
+			if (x > 0 && x + spriteWidth > width) {
+				x = 0;
+				y += shelfHeight + PADDING;
+				shelfHeight = 0;
+			}
+			bounds.put(sprite, new Rectangle(x, y, spriteWidth, spriteImage.getHeight(null)));
+			x += spriteWidth + PADDING;
+			shelfHeight = Math.max(shelfHeight, spriteImage.getHeight(null));
+		}
+
+		BufferedImage image = new BufferedImage(Math.max(1, width), Math.max(1, y + shelfHeight),
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics graphics = image.getGraphics();
+		bounds.forEach((sprite, rectangle) -> graphics.drawImage(images.get(sprite), rectangle.x, rectangle.y, null));
+		graphics.dispose();
+		return new SpriteAtlas(image, bounds);
+	}
+
+	/** @return the packed image. */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/** @param sprite a sprite.
+	 * @return where the sprite is in the image, null if it is not packed. */
+	public Rectangle getBounds(Sprite sprite) {
+		return bounds.get(sprite);
+	}
+
+	/**Draws a sprite in its size.
+	 * @param graphics where to draw.
+	 * @param sprite   the sprite.
+	 * @param x        the left edge.
+	 * @param y        the top edge. */
+	public void draw(Graphics graphics, Sprite sprite, int x, int y) {
+		Rectangle rectangle = bounds.get(sprite);
+		draw(graphics, sprite, 0, 0, rectangle.width, rectangle.height, x, y);
+	}
+
+	/**Draws a part of a sprite in its size.
+	 * @param graphics where to draw.
+	 * @param sprite   the sprite.
+	 * @param partX    the left edge of the part in the sprite.
+	 * @param partY    the top edge of the part in the sprite.
+	 * @param width    the width of the part.
+	 * @param height   the height of the part.
+	 * @param x        the left edge to draw to.
+	 * @param y        the top edge to draw to. */
+	public void draw(Graphics graphics, Sprite sprite, int partX, int partY, int width, int height, int x, int y) {
+		Rectangle rectangle = bounds.get(sprite);
+		int left = rectangle.x + partX;
+		int top = rectangle.y + partY;
+		graphics.drawImage(image, x, y, x + width, y + height, left, top, left + width, top + height, null);
+	}
+
+	/**Scales a sprite smoothly, for packing it again in the size it is drawn in.
+	 * @param sprite a sprite.
+	 * @param width  the new width.
+	 * @param height the new height.
+	 * @return the scaled sprite. */
+	public BufferedImage scale(Sprite sprite, int width, int height) {
+		Rectangle rectangle = bounds.get(sprite);
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = scaled.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(image, 0, 0, width, height, rectangle.x, rectangle.y, rectangle.x + rectangle.width,
+				rectangle.y + rectangle.height, null);
+		graphics.dispose();
+		return scaled;
+	}
+
+	/**Finds the PNG of every sprite.
+	 * @return the resources.
+	 * @throws CompletionException with an IOException if a PNG is missing. */
+	private static Map<Sprite, URL> resources() {
+		Map<Sprite, URL> resources = new EnumMap<>(Sprite.class);
+		for (Sprite sprite : Sprite.values()) {
+			URL resource = SpriteAtlas.class.getResource(sprite.resource);
+			if (resource == null) {
+				throw new CompletionException(new IOException("Missing graphic " + sprite.resource + " on the classpath."));
+			}
+			resources.put(sprite, resource);
+		}
+		return resources;
+	}
+
+	/**Decodes a PNG. The stream is cached in memory, ImageIO would cache it in a temporary file. ImageIO closes the
+	 * cache itself.
+	 * @param resource the PNG.
+	 * @return the image.
+	 * @throws CompletionException with an IOException if the PNG can't be read. */
+	private static BufferedImage decode(URL resource) {
+		try (InputStream in = resource.openStream()) {
+			BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(in));
+			if (image == null) {
+				throw new IOException("No image in " + resource + ".");
+			}
+			return image;
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**Returns the size and date of a resource, which tell if a cache made from it is still up to date.
+	 * @param resource the resource.
+	 * @return the size and the date, 0 where unknown.
+	 * @throws IOException if the resource can't be opened. */
+	private static long[] stamp(URL resource) throws IOException {
+		URLConnection connection = resource.openConnection();
+		try {
+			return new long[] { connection.getContentLengthLong(), connection.getLastModified() };
+		} finally {
+			connection.getInputStream().close();
+		}
+	}
+
+	/** @return the size of the cache header for the number of sprites. */
+	private static int headerSize() {
+		return 4 * Integer.BYTES + Sprite.values().length * (2 * Long.BYTES + 4 * Integer.BYTES);
+	}
+
+	/**Reads the atlas from the cache file. The file is read rather than mapped and closed before this returns, so
+	 * {@link #writeCache} can replace it on every system. The header is read first, the pixels only if it is up to
+	 * date, and they are copied into the image in one go.
+	 * @param cache     the cache file.
+	 * @param resources the PNGs the cache has to be made of.
+	 * @return the atlas, null if there is no cache or it is out of date or broken. */
+	private static SpriteAtlas readCache(Path cache, Map<Sprite, URL> resources) {
+		try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(headerSize());
+			if (!readFully(channel, buffer) || buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION) {
+				return null;
+			}
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			Map<Sprite, Rectangle> bounds = new EnumMap<>(Sprite.class);
+			for (Sprite sprite : Sprite.values()) {
+				long[] stamp = stamp(resources.get(sprite));
+				if (buffer.getLong() != stamp[0] || buffer.getLong() != stamp[1] || stamp[1] == 0) {
+					return null;
+				}
+				bounds.put(sprite, new Rectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt()));
+			}
+			long size = (long) width * height * Integer.BYTES;
+			if (width <= 0 || height <= 0 || channel.size() != headerSize() + size || size > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = ByteBuffer.allocate((int) size);
+			if (!readFully(channel, buffer)) {
+				return null;
+			}
+			int[] pixels = new int[width * height];
+			buffer.asIntBuffer().get(pixels);
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			image.getRaster().setDataElements(0, 0, width, height, pixels);
+			return new SpriteAtlas(image, bounds);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**Fills a buffer from a file and flips it for reading.
+	 * @param channel the file.
+	 * @param buffer  the buffer.
+	 * @return false if the file ended before the buffer was full.
+	 * @throws IOException if reading fails. */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	/**Writes the atlas to the cache file. A temporary file is moved over it, so a game starting meanwhile never
+	 * reads half a file.
+	 * @param cache     the cache file.
+	 * @param resources the PNGs the atlas is made of. */
+	private void writeCache(Path cache, Map<Sprite, URL> resources) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		ByteBuffer buffer = ByteBuffer.allocate(headerSize() + width * height * Integer.BYTES);
+		buffer.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putInt(width).putInt(height);
+		Path temporary = null;
+		try {
+			for (Sprite sprite : Sprite.values()) {
+				long[] stamp = stamp(resources.get(sprite));
+				Rectangle rectangle = bounds.get(sprite);
+				buffer.putLong(stamp[0]).putLong(stamp[1]);
+				buffer.putInt(rectangle.x).putInt(rectangle.y).putInt(rectangle.width).putInt(rectangle.height);
+			}
+			IntBuffer pixels = buffer.asIntBuffer();
+			pixels.put((int[]) image.getRaster().getDataElements(0, 0, width, height, null));
+			buffer.rewind();
+
+			temporary = Files.createTempFile(cache.toAbsolutePath().getParent(), "sprites", ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			try {
+				Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException e2) {
+					e2.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
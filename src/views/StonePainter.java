@@ -0,0 +1,16 @@
+package views;
+
+import data.Player;
+
+/**Something that can draw single stones. Used by {@link Animation} to draw its frames into a View.
+ */
+public interface StonePainter {
+	/**Draws one stone.
+	 * @param player the color of the stone, NOONE draws an empty hole.
+	 * @param column the column of the stone.
+	 * @param y      the vertical position in 1/{@link Animation#STEPS} display rows. Display row 0 is the play stone
+	 *               above the board, the display row equal to the number of rows is the bottom row.
+	 */
+	void paintStone(Player player, int column, int y);
+
+}